@@ -15,6 +15,10 @@ import util.GraphLoader;
  *
  */
 public class DataSet {
+	// Routes kept per graph, so that re-displaying a route (or switching
+	// between search algorithms and back) does not search again
+	private static final int ROUTE_CACHE_SIZE = 256;
+
 	String filePath;
 	roadgraph.MapGraph graph;
 	Set<GeographicPoint> intersections;
@@ -59,7 +63,8 @@ public class DataSet {
         roads = new HashMap<geography.GeographicPoint, HashSet<geography.RoadSegment>>();
         intersections = new HashSet<GeographicPoint>();
         //TODO: change to use intersections for points in graph.
-    	GraphLoader.loadRoadMap(filePath, graph, roads, intersections);
+    	GraphLoader.loadRoadMapWithSnapshot(filePath, graph, roads, intersections);
+    	graph.enableRouteCache(ROUTE_CACHE_SIZE);
     }
 
 	public String getFilePath() {
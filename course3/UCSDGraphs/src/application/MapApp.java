@@ -337,15 +337,20 @@ implements MapComponentInitializedListener {
 		RadioButton rbB = new RadioButton("BFS");
 		rbB.setUserData("BFS");
 
+		// k shortest routes, drawn together
+		RadioButton rbK = new RadioButton("Alternatives");
+		rbK.setUserData("Alternatives");
+
 		rbB.setToggleGroup(group);
 		rbD.setToggleGroup(group);
 		rbA.setToggleGroup(group);
+		rbK.setToggleGroup(group);
 		
 		// Crow path
 		RadioButton rbC = new RadioButton("Crow path");
 		rbC.setUserData("Crow path");
 		rbC.setToggleGroup(group);
-		return new LinkedList<RadioButton>(Arrays.asList(rbB, rbD, rbA, rbC));
+		return new LinkedList<RadioButton>(Arrays.asList(rbB, rbD, rbA, rbK, rbC));
 	}
 
 
@@ -29,6 +29,7 @@ import javafx.util.StringConverter;
 
 public class RouteController {
 	// Strings for slider labels
+	public static final int ALTERNATIVES = 4;
 	public static final int BFS = 3;
     public static final int A_STAR = 2;
     public static final int DIJ = 1;
@@ -141,6 +142,9 @@ public class RouteController {
             else if(group.getSelectedToggle().getUserData().equals("BFS")) {
             	selectedToggle = BFS;
             }
+            else if(group.getSelectedToggle().getUserData().equals("Alternatives")) {
+            	selectedToggle = ALTERNATIVES;
+            }
             else {
             	System.err.println("Invalid radio button selection");
             }
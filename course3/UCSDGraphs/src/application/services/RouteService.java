@@ -5,7 +5,6 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -16,8 +15,6 @@ import application.MarkerManager;
 import application.RouteVisualization;
 import application.controllers.RouteController;
 
-import java.util.Iterator;
-
 import geography.GeographicPoint;
 import geography.RoadSegment;
 import gmapsfx.GoogleMapView;
@@ -26,14 +23,19 @@ import gmapsfx.javascript.object.LatLong;
 import gmapsfx.javascript.object.LatLongBounds;
 import gmapsfx.javascript.object.MVCArray;
 import gmapsfx.shapes.Polyline;
+import gmapsfx.shapes.PolylineOptions;
 import javafx.scene.control.Button;
 
 public class RouteService {
+	// number of routes drawn for the Alternatives option
+	private static final int ALTERNATIVE_ROUTES = 3;
+
 	private GoogleMap map;
 
     // static variable
     private MarkerManager markerManager;
     private Polyline routeLine;
+    private List<Polyline> alternativeLines = new ArrayList<Polyline>();
     private RouteVisualization rv;
 
 	public RouteService(GoogleMapView mapComponent, MarkerManager manager) {
@@ -81,6 +83,7 @@ public class RouteService {
     public void hideRoute() {
     	if(routeLine != null) {
         	map.removeMapShape(routeLine);
+        	removeAlternativeLines();
         	if(markerManager.getVisualization() != null) {
         		markerManager.clearVisualization();
         	}
@@ -135,11 +138,44 @@ public class RouteService {
                 return displayRoute(mapPath);
     		}
 
+        	else if (toggle == RouteController.ALTERNATIVES) {
+        		return displayAlternatives(start, end);
+        	}
+
     		return false;
         }
         return false;
     }
 
+    /**
+     * Display the shortest route in the usual style and the next
+     * shortest ones, which do not revisit any intersection, in grey
+     * @return returns false if there is no route
+     */
+    private boolean displayAlternatives(geography.GeographicPoint start, geography.GeographicPoint end) {
+    	List<List<geography.GeographicPoint>> paths =
+    			markerManager.getDataSet().getGraph().kShortestPaths(start, end, ALTERNATIVE_ROUTES);
+    	if(paths.isEmpty()) {
+            MapApp.showInfoAlert("Routing Error : ", "No path found");
+        	return false;
+        }
+
+    	// draw the alternatives first so the best route is on top
+    	for(int i = paths.size() - 1; i > 0; i--) {
+    		MVCArray path = new MVCArray();
+    		for(LatLong point : constructMapPath(paths.get(i))) {
+    			path.push(point);
+    		}
+    		Polyline line = new Polyline(new PolylineOptions().path(path)
+    				.strokeColor("#808080").strokeOpacity(0.7).strokeWeight(4));
+    		map.addMapShape(line);
+    		alternativeLines.add(line);
+    	}
+
+        markerManager.setSelectMode(false);
+        return displayRoute(constructMapPath(paths.get(0)));
+    }
+
 
 
 
@@ -150,50 +186,15 @@ public class RouteService {
      */
     private List<LatLong> constructMapPath(List<geography.GeographicPoint> path) {
     	List<LatLong> retVal = new ArrayList<LatLong>();
-        List<geography.GeographicPoint> segmentList = null;
-    	geography.GeographicPoint curr;
-    	geography.GeographicPoint next;
-
-    	geography.RoadSegment chosenSegment = null;;
-
-        for(int i = 0; i < path.size() - 1; i++) {
-            double minLength = Double.MAX_VALUE;
-        	curr = path.get(i);
-        	next = path.get(i+1);
-
-        	if(markerManager.getDataSet().getRoads().containsKey(curr)) {
-        		HashSet<geography.RoadSegment> segments = markerManager.getDataSet().getRoads().get(curr);
-        		Iterator<geography.RoadSegment> it = segments.iterator();
-
-        		// get segments which are
-            	geography.RoadSegment currSegment;
-                while(it.hasNext()) {
-                    //System.out.println("new segment");
-                	currSegment = it.next();
-                	if(currSegment.getOtherPoint(curr).equals(next)) {
-                        //System.out.println("1st check passed : other point correct");
-                		if(currSegment.getLength() < minLength) {
-                            //System.out.println("2nd check passed : length less");
-                			chosenSegment = currSegment;
-                		}
-                	}
-                }
-
-                if(chosenSegment != null) {
-                    segmentList = chosenSegment.getPoints(curr, next);
-                    for(geography.GeographicPoint point : segmentList) {
-                        retVal.add(new LatLong(point.getX(), point.getY()));
-                    }
-                }
-                else {
-                	System.err.println("ERROR in constructMapPath : chosenSegment was null");
-                }
-        		// find
-
-        	}
-        }
+    	roadgraph.Route route = markerManager.getDataSet().getGraph().routeOf(path);
+    	if(route == null) {
+    		System.err.println("ERROR in constructMapPath : path does not follow the roads");
+    		return retVal;
+    	}
 
-        // System.out.println("NOW there are " + retVal.size() + " points");
+    	for(geography.GeographicPoint point : route.getGeometry()) {
+    		retVal.add(new LatLong(point.getX(), point.getY()));
+    	}
     	return retVal;
     }
 
@@ -202,6 +203,14 @@ public class RouteService {
         if(routeLine != null) {
     		map.removeMapShape(routeLine);
         }
+        removeAlternativeLines();
+	}
+
+	private void removeAlternativeLines() {
+		for(Polyline line : alternativeLines) {
+			map.removeMapShape(line);
+		}
+		alternativeLines.clear();
 	}
 
 //    private void setMarkerManager(MarkerManager manager) {
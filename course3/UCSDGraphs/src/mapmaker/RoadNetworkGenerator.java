@@ -0,0 +1,331 @@
+package mapmaker;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import util.BinaryMapFile;
+
+/**
+ * Writes synthetic road networks as .map files, together with the same
+ * segments as a binary map file (see util.BinaryMapFile), for testing the
+ * loader and the searches on graphs of any size.
+ *
+ * The kinds of network are:
+ *   grid    - a grid of streets and avenues with jittered intersections,
+ *             tertiary/secondary/primary arterials every 5/10/20 roads,
+ *             one-way residential avenues, a few missing blocks and curved
+ *             segments (shape points that are not intersections)
+ *   highway - a grid with motorways laid over it every 50 rows and
+ *             columns, joined to the grid by motorway_link ramps
+ *   radial  - a city of ring roads around a centre and spokes leading out
+ *             of it, with more spokes the farther out the ring
+ *
+ * Every coordinate is a function of the seed and its position in the
+ * network, so nothing is kept in memory and networks of millions of
+ * intersections are written as fast as the disk allows.
+ *
+ * Usage: java mapmaker.RoadNetworkGenerator grid|highway|radial intersections file.map [seed]
+ */
+public class RoadNetworkGenerator {
+    // About 100 m between neighbouring intersections
+    private static final double SPACING = 0.0009;
+
+    private static final int HIGHWAY_EVERY = 50;
+    private static final int RAMP_EVERY = 10;
+
+    private final long seed;
+    private final double originLat = 32.70;
+    private final double originLon = -117.20;
+    private final double lonSpacing = SPACING / Math.cos(Math.toRadians(originLat));
+
+    private PrintWriter text;
+    private BinaryMapFile.Writer binary;
+    private long segments;
+
+    public RoadNetworkGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Write a network to a .map file and its binary equivalent
+     * @param kind "grid", "highway" or "radial"
+     * @param intersections About how many intersections the network has
+     * @param mapFile The .map file to write
+     * @param binaryFile The binary map file to write
+     * @return The number of segments (lines of the .map file) written
+     * @throws IOException if either file cannot be written
+     */
+    public long generate(String kind, int intersections, String mapFile, String binaryFile)
+            throws IOException {
+        if (!kind.equals("grid") && !kind.equals("highway") && !kind.equals("radial")) {
+            throw new IllegalArgumentException("Unknown kind of network: " + kind);
+        }
+        segments = 0;
+        text = new PrintWriter(new BufferedWriter(new FileWriter(mapFile), 1 << 16));
+        binary = new BinaryMapFile.Writer(binaryFile);
+        try {
+            if (kind.equals("radial")) {
+                radial(intersections);
+            } else {
+                int side = Math.max(2, (int) Math.ceil(Math.sqrt(intersections)));
+                grid(side, side);
+                if (kind.equals("highway")) {
+                    highways(side, side);
+                }
+            }
+        } finally {
+            text.close();
+            binary.close();
+        }
+        if (text.checkError()) {
+            throw new IOException("Problem writing " + mapFile);
+        }
+        return segments;
+    }
+
+    // Streets along the rows, avenues along the columns
+    private void grid(int rows, int cols) throws IOException {
+        for (int r = 0; r < rows; r++) {
+            String name = ordinal(r + 1) + " Street";
+            String type = roadType(r);
+            for (int c = 0; c + 1 < cols; c++) {
+                block(gridLat(r, c), gridLon(r, c), gridLat(r, c + 1), gridLon(r, c + 1),
+                        name, type, false, r, c, 0);
+            }
+        }
+        for (int c = 0; c < cols; c++) {
+            String name = ordinal(c + 1) + " Avenue";
+            String type = roadType(c);
+            // every fourth residential avenue is one-way, alternately north and south
+            boolean oneWay = type.equals("residential") && c % 4 == 2;
+            boolean north = (c / 4) % 2 == 0;
+            for (int r = 0; r + 1 < rows; r++) {
+                if (!oneWay || north) {
+                    block(gridLat(r, c), gridLon(r, c), gridLat(r + 1, c), gridLon(r + 1, c),
+                            name, type, oneWay, r, c, 1);
+                } else {
+                    block(gridLat(r + 1, c), gridLon(r + 1, c), gridLat(r, c), gridLon(r, c),
+                            name, type, oneWay, r, c, 1);
+                }
+            }
+        }
+    }
+
+    // One block of a grid road, sometimes missing and sometimes curved
+    private void block(double lat1, double lon1, double lat2, double lon2, String name,
+            String type, boolean oneWay, int r, int c, int salt) throws IOException {
+        if (type.equals("residential") && noise(r, c, 10 + salt) < 0.04) {
+            return;
+        }
+        if (noise(r, c, 20 + salt) < 0.25) {
+            double midLat = (lat1 + lat2) / 2 + (noise(r, c, 30 + salt) - 0.5) * 0.3 * SPACING;
+            double midLon = (lon1 + lon2) / 2 + (noise(r, c, 40 + salt) - 0.5) * 0.3 * lonSpacing;
+            road(lat1, lon1, midLat, midLon, name, type, oneWay);
+            road(midLat, midLon, lat2, lon2, name, type, oneWay);
+        } else {
+            road(lat1, lon1, lat2, lon2, name, type, oneWay);
+        }
+    }
+
+    // Motorways halfway between grid rows and columns, with ramps down to the grid
+    private void highways(int rows, int cols) throws IOException {
+        int number = 5;
+        for (int r = HIGHWAY_EVERY / 2; r + 1 < rows; r += HIGHWAY_EVERY) {
+            String name = "Interstate " + number;
+            number += 10;
+            double lat = originLat + (r + 0.5) * SPACING;
+            for (int c = 0; c + 1 < cols; c++) {
+                road(lat, originLon + c * lonSpacing, lat, originLon + (c + 1) * lonSpacing,
+                        name, "motorway", false);
+                if (c % RAMP_EVERY == RAMP_EVERY / 2) {
+                    road(lat, originLon + c * lonSpacing, gridLat(r, c), gridLon(r, c),
+                            name + " Exit " + c, "motorway_link", false);
+                }
+            }
+        }
+        number = 15;
+        for (int c = HIGHWAY_EVERY / 2; c + 1 < cols; c += HIGHWAY_EVERY) {
+            String name = "Interstate " + number;
+            number += 10;
+            double lon = originLon + (c + 0.5) * lonSpacing;
+            for (int r = 0; r + 1 < rows; r++) {
+                road(originLat + r * SPACING, lon, originLat + (r + 1) * SPACING, lon,
+                        name, "motorway", false);
+                if (r % RAMP_EVERY == RAMP_EVERY / 2) {
+                    road(originLat + r * SPACING, lon, gridLat(r, c), gridLon(r, c),
+                            name + " Exit " + r, "motorway_link", false);
+                }
+            }
+        }
+    }
+
+    // Ring roads around a centre, joined by spokes.  Ring i has ringSize(i)
+    // intersections, a multiple of the size of every ring inside it, so each
+    // spoke carries on outwards through every later ring.
+    private void radial(int intersections) throws IOException {
+        int rings = 1;
+        long count = 1 + ringSize(1);
+        while (count < intersections) {
+            rings++;
+            count += ringSize(rings);
+        }
+        int outer = ringSize(rings);
+
+        for (int i = 1; i <= rings; i++) {
+            int size = ringSize(i);
+            String name = ordinal(i) + " Circle";
+            String type = i % 8 == 0 ? "primary" : i % 4 == 0 ? "secondary" : "residential";
+            for (int j = 0; j < size; j++) {
+                int next = (j + 1) % size;
+                if (noise(i, j, 50) < 0.5) {
+                    // follow the arc rather than the chord
+                    double mid = 2 * Math.PI * (j + 0.5) / size;
+                    double midLat = originLat + i * Math.sin(mid) * SPACING;
+                    double midLon = originLon + i * Math.cos(mid) * lonSpacing;
+                    road(ringLat(i, j), ringLon(i, j), midLat, midLon, name, type, false);
+                    road(midLat, midLon, ringLat(i, next), ringLon(i, next), name, type, false);
+                } else {
+                    road(ringLat(i, j), ringLon(i, j), ringLat(i, next), ringLon(i, next),
+                            name, type, false);
+                }
+            }
+        }
+
+        for (int i = 0; i < rings; i++) {
+            int size = i == 0 ? 1 : ringSize(i);
+            int nextSize = ringSize(i + 1);
+            for (int j = 0; j < size; j++) {
+                // the centre starts the eight main spokes
+                int[] targets = i == 0 ? new int[] { 0, 1, 2, 3, 4, 5, 6, 7 }
+                        : new int[] { j * (nextSize / size) };
+                for (int target : targets) {
+                    int spoke = target * (outer / nextSize);
+                    String type = spoke % (outer / 8) == 0 ? "primary"
+                            : outer >= 32 && spoke % (outer / 32) == 0 ? "secondary" : "residential";
+                    double lat = i == 0 ? originLat : ringLat(i, j);
+                    double lon = i == 0 ? originLon : ringLon(i, j);
+                    road(lat, lon, ringLat(i + 1, target), ringLon(i + 1, target),
+                            "Spoke " + spoke, type, false);
+                }
+            }
+        }
+    }
+
+    // Intersections on ring i: eight on the innermost ring, doubling whenever
+    // the ring is long enough to keep them about two spacings apart
+    private static int ringSize(int i) {
+        int size = 8;
+        while (size * 2 <= Math.PI * i) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    private double gridLat(int r, int c) {
+        return originLat + (r + 0.3 * (noise(r, c, 0) - 0.5)) * SPACING;
+    }
+
+    private double gridLon(int r, int c) {
+        return originLon + (c + 0.3 * (noise(r, c, 1) - 0.5)) * lonSpacing;
+    }
+
+    private double ringAngle(int i, int j) {
+        return 2 * Math.PI * (j + 0.2 * (noise(i, j, 2) - 0.5)) / ringSize(i);
+    }
+
+    private double ringLat(int i, int j) {
+        double radius = i + 0.2 * (noise(i, j, 3) - 0.5);
+        return originLat + radius * Math.sin(ringAngle(i, j)) * SPACING;
+    }
+
+    private double ringLon(int i, int j) {
+        double radius = i + 0.2 * (noise(i, j, 3) - 0.5);
+        return originLon + radius * Math.cos(ringAngle(i, j)) * lonSpacing;
+    }
+
+    // Write a road segment, and the segment back unless the road is one-way
+    private void road(double lat1, double lon1, double lat2, double lon2, String name,
+            String type, boolean oneWay) throws IOException {
+        segment(lat1, lon1, lat2, lon2, name, type);
+        if (!oneWay) {
+            segment(lat2, lon2, lat1, lon1, name, type);
+        }
+    }
+
+    private void segment(double lat1, double lon1, double lat2, double lon2, String name,
+            String type) throws IOException {
+        text.print(lat1);
+        text.print(' ');
+        text.print(lon1);
+        text.print(' ');
+        text.print(lat2);
+        text.print(' ');
+        text.print(lon2);
+        text.print(" \"");
+        text.print(name);
+        text.print("\" ");
+        text.println(type);
+        binary.segment(lat1, lon1, lat2, lon2, name, type);
+        segments++;
+    }
+
+    private static String roadType(int index) {
+        if (index % 20 == 0) {
+            return "primary";
+        } else if (index % 10 == 0) {
+            return "secondary";
+        } else if (index % 5 == 0) {
+            return "tertiary";
+        }
+        return "residential";
+    }
+
+    private static String ordinal(int n) {
+        if (n % 100 >= 11 && n % 100 <= 13) {
+            return n + "th";
+        }
+        switch (n % 10) {
+            case 1: return n + "st";
+            case 2: return n + "nd";
+            case 3: return n + "rd";
+            default: return n + "th";
+        }
+    }
+
+    // A number in [0, 1) that depends only on the seed and the arguments
+    private double noise(long a, long b, int salt) {
+        long h = seed * 0x9E3779B97F4A7C15L + a * 0xC2B2AE3D27D4EB4FL
+                + b * 0x165667B19E3779F9L + salt * 0xD6E8FEB86659FD93L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (h >>> 11) * 0x1.0p-53;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 3 || args.length > 4) {
+            System.out.println("Usage: java mapmaker.RoadNetworkGenerator "
+                    + "grid|highway|radial intersections file.map [seed]");
+            return;
+        }
+
+        String mapFile = args[2];
+        String binaryFile = (mapFile.endsWith(".map")
+                ? mapFile.substring(0, mapFile.length() - 4) : mapFile) + BinaryMapFile.EXTENSION;
+        try {
+            int intersections = Integer.parseInt(args[1]);
+            long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+            long start = System.nanoTime();
+            long written = new RoadNetworkGenerator(seed).generate(args[0], intersections,
+                    mapFile, binaryFile);
+            System.out.println("Wrote " + written + " segments to " + mapFile + " and "
+                    + binaryFile + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Bidirectional Dijkstra and A* on a CSRGraph
+ */
+package roadgraph;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * Searches forward from the start over outgoing edges and backward
+ * from the goal over incoming edges, always expanding the side whose
+ * queue has the smaller key.  Every time an edge connects the two
+ * frontiers the length of that start-goal path is compared with the
+ * best one found so far, mu.  The search stops once the two smallest
+ * keys add up to at least mu, since no path through an unsettled
+ * vertex can then be shorter.
+ *
+ * For A* both sides use the average potential
+ *   pF(v) = (dist(v, goal) - dist(v, start)) / 2,  pB(v) = -pF(v)
+ * which keeps the reduced edge costs of both searches equal and
+ * non-negative, so the same stopping rule applies unchanged.
+ *
+ */
+final class BidirectionalSearch
+{
+	private BidirectionalSearch() {}
+
+	/**
+	 * Find the shortest path from startId to goalId
+	 * @param csr The graph to search
+	 * @param w The edge weights of the cost profile to use
+	 * @param startId The starting vertex
+	 * @param goalId The goal vertex
+	 * @param nodeSearched A hook called with each vertex settled by either side
+	 * @param useHeuristic Whether to use the A* potentials
+	 * @param statsListener Receives the SearchStats of the search, or null
+	 * @return The intersections on the shortest path, including start and
+	 *   goal, or null if there is no path
+	 */
+	static List<GeographicPoint> search(CSRGraph csr, CostProfile.Weights w,
+			int startId, int goalId,
+			Consumer<GeographicPoint> nodeSearched, boolean useHeuristic,
+			Consumer<SearchStats> statsListener)
+	{
+		GeographicPoint start = csr.points[startId];
+		GeographicPoint goal = csr.points[goalId];
+		if (startId == goalId) {
+			if (nodeSearched != MapGraph.NO_HOOK) {
+				nodeSearched.accept(start);
+			}
+			return new Route(csr, new int[] { startId }, new int[0], 0).getPoints();
+		}
+
+		long began = statsListener == null ? 0 : System.nanoTime();
+		SearchContext fwd = csr.acquireContext();
+		SearchContext bwd = csr.acquireContext();
+		try {
+			fwd.reachStart(startId);
+			fwd.heap.insertOrDecrease(startId, potential(csr, w, startId, start, goal, useHeuristic));
+			bwd.reachStart(goalId);
+			bwd.heap.insertOrDecrease(goalId, -potential(csr, w, goalId, start, goal, useHeuristic));
+
+			// best start-goal path so far, and the edge where its two halves meet
+			double mu = Double.POSITIVE_INFINITY;
+			int meetEdge = -1;
+			int visitedCounter = 0;
+			int edgesRelaxed = 0;
+
+			while (!fwd.heap.isEmpty() && !bwd.heap.isEmpty()) {
+				double fKey = fwd.heap.peekKey();
+				double bKey = bwd.heap.peekKey();
+				if (fKey + bKey >= mu) {
+					break;
+				}
+				visitedCounter++;
+				if (fKey <= bKey) {
+					// expand the forward frontier along outgoing edges
+					int curr = fwd.heap.poll();
+					fwd.settle(curr);
+					if (nodeSearched != MapGraph.NO_HOOK) {
+						nodeSearched.accept(csr.points[curr]);
+					}
+					double currDistance = fwd.distance(curr);
+					edgesRelaxed += csr.offsets[curr + 1] - csr.offsets[curr];
+					for (int e = csr.offsets[curr]; e < csr.offsets[curr + 1]; e++) {
+						int next = csr.targets[e];
+						if (fwd.isSettled(next)) {
+							continue;
+						}
+						double pathToNext = currDistance + w.edges[e];
+						if (pathToNext < fwd.distance(next)) {
+							fwd.reach(next, pathToNext, curr, e);
+							fwd.heap.insertOrDecrease(next, pathToNext
+									+ potential(csr, w, next, start, goal, useHeuristic));
+						}
+						double through = pathToNext + bwd.distance(next);
+						if (through < mu) {
+							mu = through;
+							meetEdge = e;
+						}
+					}
+				}
+				else {
+					// expand the backward frontier along incoming edges
+					int curr = bwd.heap.poll();
+					bwd.settle(curr);
+					if (nodeSearched != MapGraph.NO_HOOK) {
+						nodeSearched.accept(csr.points[curr]);
+					}
+					double currDistance = bwd.distance(curr);
+					edgesRelaxed += csr.reverseOffsets[curr + 1] - csr.reverseOffsets[curr];
+					for (int i = csr.reverseOffsets[curr]; i < csr.reverseOffsets[curr + 1]; i++) {
+						int e = csr.reverseEdges[i];
+						int prev = csr.sources[e];
+						if (bwd.isSettled(prev)) {
+							continue;
+						}
+						double pathFromPrev = currDistance + w.edges[e];
+						if (pathFromPrev < bwd.distance(prev)) {
+							bwd.reach(prev, pathFromPrev, curr, e);
+							bwd.heap.insertOrDecrease(prev, pathFromPrev
+									- potential(csr, w, prev, start, goal, useHeuristic));
+						}
+						double through = pathFromPrev + fwd.distance(prev);
+						if (through < mu) {
+							mu = through;
+							meetEdge = e;
+						}
+					}
+				}
+			}
+
+			if (statsListener != null) {
+				SearchStats.report(statsListener,
+						useHeuristic ? "bidirectionalAStar" : "bidirectionalDijkstra",
+						began, visitedCounter, edgesRelaxed, fwd.heap, bwd.heap);
+			}
+			if (meetEdge < 0) {
+				return null;
+			}
+			return joinPath(csr, fwd, bwd, startId, goalId, meetEdge, mu);
+		}
+		finally {
+			csr.releaseContext(fwd);
+			csr.releaseContext(bwd);
+		}
+	}
+
+	// The forward potential of v; the backward potential is its negation.
+	// Straight-line distances are scaled by the cheapest cost per km.
+	private static double potential(CSRGraph csr, CostProfile.Weights w, int v,
+			GeographicPoint start, GeographicPoint goal, boolean useHeuristic)
+	{
+		if (!useHeuristic) {
+			return 0;
+		}
+		GeographicPoint p = csr.points[v];
+		return (p.distance(goal) - p.distance(start)) / 2 * w.perKm;
+	}
+
+	// Join the forward path to the source of meetEdge with the backward
+	// path from its target
+	private static List<GeographicPoint> joinPath(CSRGraph csr, SearchContext fwd,
+			SearchContext bwd, int startId, int goalId, int meetEdge, double cost)
+	{
+		int before = 0;
+		for (int v = csr.sources[meetEdge]; v != startId; v = fwd.parent(v)) {
+			before++;
+		}
+		int after = 0;
+		for (int v = csr.targets[meetEdge]; v != goalId; v = bwd.parent(v)) {
+			after++;
+		}
+		int[] vertices = new int[before + after + 2];
+		int[] edges = new int[before + after + 1];
+		int v = csr.sources[meetEdge];
+		for (int i = before; i > 0; i--) {
+			vertices[i] = v;
+			edges[i - 1] = fwd.parentEdge(v);
+			v = fwd.parent(v);
+		}
+		vertices[0] = startId;
+		edges[before] = meetEdge;
+		v = csr.targets[meetEdge];
+		for (int i = before + 1; i < vertices.length - 1; i++) {
+			vertices[i] = v;
+			edges[i] = bwd.parentEdge(v);
+			v = bwd.parent(v);
+		}
+		vertices[vertices.length - 1] = goalId;
+		return new Route(csr, vertices, edges, cost).getPoints();
+	}
+
+}
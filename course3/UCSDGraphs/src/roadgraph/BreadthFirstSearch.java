@@ -0,0 +1,485 @@
+/**
+ * Direction-optimizing breadth first search on a CSRGraph
+ */
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import geography.GeographicPoint;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * Breadth first search one level at a time.  Each level is expanded
+ * either top-down, looking at the out-edges of every frontier vertex,
+ * or bottom-up, looking at the in-edges of every unvisited vertex for
+ * one in the frontier.  Bottom-up is cheaper once the frontier holds
+ * more edges than the unvisited part of the graph, so the search
+ * switches to it when the frontier's edges exceed the unexplored edges
+ * divided by ALPHA, and back when the frontier shrinks below n / BETA
+ * vertices.  Visited and frontier sets are bitsets and parents are int
+ * arrays; on road networks, whose frontiers stay small, most levels
+ * are top-down.
+ *
+ * path() finds the same path, and calls the visualization hook on the
+ * same vertices in the same order, as a search with a FIFO queue: its
+ * bottom-up levels pick for each vertex the in-neighbour a FIFO search
+ * would have reached it from, and sort the next frontier into FIFO
+ * order.  hopDistances() only needs the number of hops, so its
+ * bottom-up levels stop at the first frontier in-neighbour, and it can
+ * expand each level in parallel.
+ *
+ */
+final class BreadthFirstSearch
+{
+	private static final int ALPHA = 14;
+	private static final int BETA = 24;
+
+	/** Vertices per parallel task of a bottom-up level; a multiple of 64 */
+	private static final int CHUNK = 1 << 12;
+
+	private BreadthFirstSearch() {}
+
+	/**
+	 * Search from startId until goalId is reached, recording each
+	 * vertex's parent in ctx
+	 * @param csr The graph to search
+	 * @param ctx A context from csr
+	 * @param startId The starting vertex
+	 * @param goalId The goal vertex
+	 * @param closed The ids of closed edges, or null
+	 * @param hook Called on each vertex as it is visited, or MapGraph.NO_HOOK
+	 * @param statsListener Receives the SearchStats of the search, or null
+	 * @return true if goalId was reached
+	 */
+	static boolean path(CSRGraph csr, SearchContext ctx, int startId, int goalId,
+			BitSet closed, Consumer<GeographicPoint> hook, Consumer<SearchStats> statsListener)
+	{
+		long began = statsListener == null ? 0 : System.nanoTime();
+		int n = csr.numVertices();
+		Scratch s = ctx.bfsScratch();
+		Arrays.fill(s.visited, 0);
+		int[] frontier = s.frontier;
+		int[] next = s.next;
+		int size = 1;
+		frontier[0] = startId;
+		set(s.visited, startId);
+		ctx.reachStart(startId);
+
+		long unexplored = csr.numEdges() - degree(csr, startId);
+		long frontierEdges = degree(csr, startId);
+		boolean bottomUp = false;
+		int previousSize = 0;
+		boolean found = false;
+		int visitedCount = 0;
+		int edgesRelaxed = 0;
+		int pushes = 1;
+		int peakFrontier = 1;
+		int level = 0;
+
+		while (size > 0) {
+			// visit the level in the order a FIFO queue would
+			for (int i = 0; i < size && !found; i++) {
+				visitedCount++;
+				if (hook != MapGraph.NO_HOOK) {
+					hook.accept(csr.points[frontier[i]]);
+				}
+				found = frontier[i] == goalId;
+			}
+			if (found) {
+				break;
+			}
+
+			// switch while the frontier grows or shrinks, as in Beamer et al.
+			if (!bottomUp && size > previousSize && frontierEdges > unexplored / ALPHA) {
+				bottomUp = true;
+			}
+			else if (bottomUp && size < previousSize && size < n / BETA) {
+				bottomUp = false;
+			}
+			previousSize = size;
+			int nextSize = 0;
+			level++;
+			if (!bottomUp) {
+				for (int i = 0; i < size; i++) {
+					int u = frontier[i];
+					edgesRelaxed += csr.offsets[u + 1] - csr.offsets[u];
+					for (int e = csr.offsets[u]; e < csr.offsets[u + 1]; e++) {
+						int v = csr.targets[e];
+						if (!get(s.visited, v) && (closed == null || !closed.get(e))) {
+							set(s.visited, v);
+							ctx.reach(v, level, u, e);
+							next[nextSize++] = v;
+						}
+					}
+				}
+			}
+			else {
+				for (int i = 0; i < size; i++) {
+					set(s.frontierBits, frontier[i]);
+					s.rank[frontier[i]] = i;
+				}
+				for (int w = 0; w < s.visited.length; w++) {
+					long unvisited = ~s.visited[w];
+					while (unvisited != 0) {
+						int v = (w << 6) + Long.numberOfTrailingZeros(unvisited);
+						unvisited &= unvisited - 1;
+						if (v >= n) {
+							break;
+						}
+						// the frontier vertex earliest in FIFO order, and its
+						// first edge to v
+						int best = -1;
+						for (int j = csr.reverseOffsets[v]; j < csr.reverseOffsets[v + 1]; j++) {
+							int e = csr.reverseEdges[j];
+							int u = csr.sources[e];
+							edgesRelaxed++;
+							if (get(s.frontierBits, u) && (closed == null || !closed.get(e))
+									&& (best < 0 || s.rank[u] < s.rank[csr.sources[best]]
+										|| (u == csr.sources[best] && e < best))) {
+								best = e;
+							}
+						}
+						if (best >= 0) {
+							set(s.visited, v);
+							ctx.reach(v, level, csr.sources[best], best);
+							next[nextSize++] = v;
+						}
+					}
+				}
+				for (int i = 0; i < size; i++) {
+					clear(s.frontierBits, frontier[i]);
+				}
+				sortByParent(ctx, s, next, nextSize, size);
+			}
+
+			pushes += nextSize;
+			peakFrontier = Math.max(peakFrontier, nextSize);
+			frontierEdges = 0;
+			for (int i = 0; i < nextSize; i++) {
+				frontierEdges += degree(csr, next[i]);
+			}
+			unexplored -= frontierEdges;
+			int[] tmp = frontier;
+			frontier = next;
+			next = tmp;
+			size = nextSize;
+		}
+
+		if (statsListener != null) {
+			statsListener.accept(new SearchStats("bfs", visitedCount, edgesRelaxed, pushes,
+					visitedCount, 0, peakFrontier, System.nanoTime() - began));
+		}
+		return found;
+	}
+
+	// Put the vertices of a bottom-up level into FIFO order: by the rank
+	// of their parent in the previous level, then by the edge they were
+	// reached along.  A counting sort on the parent's rank, with the few
+	// children of each parent sorted by insertion.
+	private static void sortByParent(SearchContext ctx, Scratch s, int[] next,
+			int nextSize, int parents)
+	{
+		int[] count = s.count;
+		int[] sorted = s.sorted;
+		Arrays.fill(count, 0, parents + 1, 0);
+		for (int i = 0; i < nextSize; i++) {
+			count[s.rank[ctx.parent(next[i])] + 1]++;
+		}
+		for (int r = 0; r < parents; r++) {
+			count[r + 1] += count[r];
+		}
+		for (int i = 0; i < nextSize; i++) {
+			int v = next[i];
+			sorted[count[s.rank[ctx.parent(v)]]++] = v;
+		}
+		// count[r] is now the end of parent r's children
+		int begin = 0;
+		for (int r = 0; r < parents; r++) {
+			int end = count[r];
+			for (int i = begin + 1; i < end; i++) {
+				int v = sorted[i];
+				int j = i - 1;
+				while (j >= begin && ctx.parentEdge(sorted[j]) > ctx.parentEdge(v)) {
+					sorted[j + 1] = sorted[j];
+					j--;
+				}
+				sorted[j + 1] = v;
+			}
+			begin = end;
+		}
+		System.arraycopy(sorted, 0, next, 0, nextSize);
+	}
+
+	/**
+	 * Count the hops from startId to every vertex
+	 * @param csr The graph to search
+	 * @param startId The starting vertex
+	 * @param closed The ids of closed edges, or null
+	 * @param parallel Whether to expand each level in parallel on the
+	 *   common ForkJoinPool
+	 * @param statsListener Receives the SearchStats of the search, or null
+	 * @return the number of hops to each vertex, or -1 where it cannot be reached
+	 */
+	static int[] hopDistances(CSRGraph csr, int startId, BitSet closed, boolean parallel,
+			Consumer<SearchStats> statsListener)
+	{
+		long began = statsListener == null ? 0 : System.nanoTime();
+		int n = csr.numVertices();
+		int words = (n + 63) >>> 6;
+		int[] hops = new int[n];
+		Arrays.fill(hops, -1);
+		AtomicLongArray visited = new AtomicLongArray(words);
+		long[] frontierBits = new long[words];
+		long[] nextBits = new long[words];
+		int[] frontier = new int[n];
+		int[] spare = new int[n];
+		frontier[0] = startId;
+		int size = 1;
+		boolean frontierIsBits = false;
+		hops[startId] = 0;
+		visited.set(startId >>> 6, 1L << startId);
+
+		long unexplored = csr.numEdges() - degree(csr, startId);
+		long frontierEdges = degree(csr, startId);
+		boolean bottomUp = false;
+		int previousSize = 0;
+		LongAdder edgesRelaxed = new LongAdder();
+		int reached = 1;
+		int peakFrontier = 1;
+		int level = 0;
+
+		while (size > 0) {
+			// switch while the frontier grows or shrinks, as in Beamer et al.
+			if (!bottomUp && size > previousSize && frontierEdges > unexplored / ALPHA) {
+				bottomUp = true;
+			}
+			else if (bottomUp && size < previousSize && size < n / BETA) {
+				bottomUp = false;
+			}
+			previousSize = size;
+			int hop = ++level;
+
+			if (!bottomUp) {
+				if (frontierIsBits) {
+					toList(frontierBits, frontier);
+					frontierIsBits = false;
+				}
+				int[] current = frontier;
+				int[] out = spare;
+				int levelSize = size;
+				int tasks = parallel ? Math.min(size / 256,
+						4 * Runtime.getRuntime().availableProcessors()) : 1;
+				if (tasks <= 1) {
+					int relaxed = 0;
+					size = 0;
+					for (int i = 0; i < levelSize; i++) {
+						int u = current[i];
+						relaxed += csr.offsets[u + 1] - csr.offsets[u];
+						for (int e = csr.offsets[u]; e < csr.offsets[u + 1]; e++) {
+							int v = csr.targets[e];
+							if (hops[v] < 0 && (closed == null || !closed.get(e))) {
+								hops[v] = hop;
+								visited.lazySet(v >>> 6, visited.get(v >>> 6) | (1L << v));
+								out[size++] = v;
+							}
+						}
+					}
+					edgesRelaxed.add(relaxed);
+				}
+				else {
+					// each task claims the vertices it reaches with a CAS
+					int[][] found = new int[tasks][];
+					stream(tasks, true).forEach(t -> {
+						IntList reachedHere = new IntList();
+						int relaxed = 0;
+						int end = (int)((long)levelSize * (t + 1) / tasks);
+						for (int i = (int)((long)levelSize * t / tasks); i < end; i++) {
+							int u = current[i];
+							relaxed += csr.offsets[u + 1] - csr.offsets[u];
+							for (int e = csr.offsets[u]; e < csr.offsets[u + 1]; e++) {
+								int v = csr.targets[e];
+								if (hops[v] < 0 && (closed == null || !closed.get(e))
+										&& claim(visited, v)) {
+									hops[v] = hop;
+									reachedHere.add(v);
+								}
+							}
+						}
+						edgesRelaxed.add(relaxed);
+						found[t] = reachedHere.toArray();
+					});
+					size = 0;
+					for (int t = 0; t < tasks; t++) {
+						System.arraycopy(found[t], 0, out, size, found[t].length);
+						size += found[t].length;
+					}
+				}
+				spare = frontier;
+				frontier = out;
+			}
+			else {
+				if (!frontierIsBits) {
+					Arrays.fill(frontierBits, 0);
+					for (int i = 0; i < size; i++) {
+						set(frontierBits, frontier[i]);
+					}
+					frontierIsBits = true;
+				}
+				long[] current = frontierBits;
+				long[] out = nextBits;
+				// each task owns whole words of the bitsets, so they never race
+				int tasks = parallel ? (n + CHUNK - 1) / CHUNK : 1;
+				int chunk = parallel ? CHUNK : words << 6;
+				int[] counts = new int[tasks];
+				stream(tasks, parallel).forEach(t -> {
+					int relaxed = 0;
+					int count = 0;
+					int lastWord = Math.min(words, ((t + 1) * chunk) >>> 6);
+					for (int w = (t * chunk) >>> 6; w < lastWord; w++) {
+						long unvisited = ~visited.get(w);
+						long bits = 0;
+						while (unvisited != 0) {
+							int v = (w << 6) + Long.numberOfTrailingZeros(unvisited);
+							unvisited &= unvisited - 1;
+							if (v >= n) {
+								break;
+							}
+							for (int j = csr.reverseOffsets[v]; j < csr.reverseOffsets[v + 1]; j++) {
+								int e = csr.reverseEdges[j];
+								relaxed++;
+								if (get(current, csr.sources[e]) && (closed == null || !closed.get(e))) {
+									hops[v] = hop;
+									bits |= 1L << v;
+									count++;
+									break;
+								}
+							}
+						}
+						out[w] = bits;
+						if (bits != 0) {
+							visited.set(w, visited.get(w) | bits);
+						}
+					}
+					edgesRelaxed.add(relaxed);
+					counts[t] = count;
+				});
+				size = 0;
+				for (int t = 0; t < tasks; t++) {
+					size += counts[t];
+				}
+				nextBits = frontierBits;
+				frontierBits = out;
+			}
+
+			reached += size;
+			peakFrontier = Math.max(peakFrontier, size);
+			frontierEdges = 0;
+			if (frontierIsBits) {
+				for (int w = 0; w < words; w++) {
+					for (long bits = frontierBits[w]; bits != 0; bits &= bits - 1) {
+						frontierEdges += degree(csr, (w << 6) + Long.numberOfTrailingZeros(bits));
+					}
+				}
+			}
+			else {
+				for (int i = 0; i < size; i++) {
+					frontierEdges += degree(csr, frontier[i]);
+				}
+			}
+			unexplored -= frontierEdges;
+		}
+
+		if (statsListener != null) {
+			int relaxed = (int)Math.min(Integer.MAX_VALUE, edgesRelaxed.sum());
+			statsListener.accept(new SearchStats(parallel ? "parallelHopDistances" : "hopDistances",
+					reached, relaxed, reached, reached, 0, peakFrontier, System.nanoTime() - began));
+		}
+		return hops;
+	}
+
+	private static IntStream stream(int tasks, boolean parallel)
+	{
+		IntStream tasksStream = IntStream.range(0, tasks);
+		return parallel ? tasksStream.parallel() : tasksStream;
+	}
+
+	// Write the vertices of a bitset into list, in increasing order
+	private static void toList(long[] bits, int[] list)
+	{
+		int i = 0;
+		for (int w = 0; w < bits.length; w++) {
+			for (long word = bits[w]; word != 0; word &= word - 1) {
+				list[i++] = (w << 6) + Long.numberOfTrailingZeros(word);
+			}
+		}
+	}
+
+	// Set v's bit in visited, returning false if another task set it first
+	private static boolean claim(AtomicLongArray visited, int v)
+	{
+		int w = v >>> 6;
+		long bit = 1L << v;
+		while (true) {
+			long old = visited.get(w);
+			if ((old & bit) != 0) {
+				return false;
+			}
+			if (visited.compareAndSet(w, old, old | bit)) {
+				return true;
+			}
+		}
+	}
+
+	private static int degree(CSRGraph csr, int v)
+	{
+		return csr.offsets[v + 1] - csr.offsets[v];
+	}
+
+	private static boolean get(long[] bits, int v)
+	{
+		return (bits[v >>> 6] & (1L << v)) != 0;
+	}
+
+	private static void set(long[] bits, int v)
+	{
+		bits[v >>> 6] |= 1L << v;
+	}
+
+	private static void clear(long[] bits, int v)
+	{
+		bits[v >>> 6] &= ~(1L << v);
+	}
+
+	/**
+	 * The arrays path() needs besides those of the SearchContext, kept
+	 * with it so that repeated searches allocate nothing
+	 */
+	static final class Scratch
+	{
+		final int[] frontier;
+		final int[] next;
+		final int[] sorted;
+		final int[] rank;
+		final int[] count;
+		final long[] visited;
+		final long[] frontierBits;
+
+		Scratch(int n)
+		{
+			frontier = new int[n];
+			next = new int[n];
+			sorted = new int[n];
+			rank = new int[n];
+			count = new int[n + 1];
+			visited = new long[(n + 63) >>> 6];
+			frontierBits = new long[(n + 63) >>> 6];
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+/**
+ * An immutable, int-indexed snapshot of a MapGraph
+ */
+package roadgraph;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import geography.GeographicPoint;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * Compressed-sparse-row (CSR) view of a MapGraph.  Vertices are numbered
+ * 0..numVertices-1 and the outgoing edges of vertex v are stored in the
+ * index range [offsets[v], offsets[v+1]) of the edge arrays.  The
+ * incoming edges of v are listed, by edge id, in the index range
+ * [reverseOffsets[v], reverseOffsets[v+1]) of reverseEdges so that
+ * searches can also run backward from a goal.
+ *
+ * The search algorithms in MapGraph run on this layout so that a
+ * relaxation is an array lookup instead of a HashSet allocation and
+ * a scan over every edge in the graph.  A snapshot never changes once
+ * built; MapGraph throws it away and builds a new one when the graph
+ * is modified.
+ *
+ */
+final class CSRGraph
+{
+	/** The location of each vertex, indexed by vertex id */
+	final GeographicPoint[] points;
+
+	/** Start of each vertex's edge range; has numVertices+1 entries */
+	final int[] offsets;
+
+	/** The source vertex of each edge */
+	final int[] sources;
+
+	/** The target vertex of each edge */
+	final int[] targets;
+
+	/** The length of each edge, in km */
+	final double[] lengths;
+
+	/** The MapEdge each CSR edge was built from */
+	final MapEdge[] edges;
+
+	/** Start of each vertex's incoming edge range; has numVertices+1 entries */
+	final int[] reverseOffsets;
+
+	/** The ids of the incoming edges of each vertex */
+	final int[] reverseEdges;
+
+	/** Reverse lookup from location to vertex id */
+	private final HashMap<GeographicPoint,Integer> ids;
+
+	/** Search contexts not currently used by a query */
+	private final ConcurrentLinkedQueue<SearchContext> contexts;
+
+	/** The edge weights of each cost profile used with this snapshot */
+	private final ConcurrentHashMap<CostProfile,CostProfile.Weights> weights;
+
+	/**
+	 * Build a snapshot of the given nodes
+	 * @param nodes The nodes of the graph to take a snapshot of
+	 * @param numEdges The total number of edges out of those nodes
+	 */
+	CSRGraph(Collection<MapNode> nodes, int numEdges)
+	{
+		int numVertices = nodes.size();
+		points = new GeographicPoint[numVertices];
+		offsets = new int[numVertices + 1];
+		sources = new int[numEdges];
+		targets = new int[numEdges];
+		lengths = new double[numEdges];
+		edges = new MapEdge[numEdges];
+		reverseOffsets = new int[numVertices + 1];
+		reverseEdges = new int[numEdges];
+		ids = new HashMap<GeographicPoint,Integer>(numVertices * 2);
+		contexts = new ConcurrentLinkedQueue<SearchContext>();
+		weights = new ConcurrentHashMap<CostProfile,CostProfile.Weights>();
+
+		int v = 0;
+		for (MapNode node : nodes) {
+			points[v] = node.getLocation();
+			ids.put(node.getLocation(), v);
+			v++;
+		}
+
+		int e = 0;
+		v = 0;
+		for (MapNode node : nodes) {
+			offsets[v] = e;
+			for (MapEdge edge : node.getEdges()) {
+				sources[e] = v;
+				targets[e] = ids.get(edge.getEndPoint());
+				lengths[e] = edge.getLength();
+				edges[e] = edge;
+				e++;
+			}
+			v++;
+		}
+		offsets[numVertices] = e;
+
+		// Bucket the edges by target to build the reverse adjacency
+		for (e = 0; e < numEdges; e++) {
+			reverseOffsets[targets[e] + 1]++;
+		}
+		for (v = 0; v < numVertices; v++) {
+			reverseOffsets[v + 1] += reverseOffsets[v];
+		}
+		int[] fill = new int[numVertices];
+		for (e = 0; e < numEdges; e++) {
+			int t = targets[e];
+			reverseEdges[reverseOffsets[t] + fill[t]++] = e;
+		}
+	}
+
+	/**
+	 * Get the number of vertices in this snapshot
+	 * @return the number of vertices
+	 */
+	int numVertices()
+	{
+		return points.length;
+	}
+
+	/**
+	 * Get the number of edges in this snapshot
+	 * @return the number of edges
+	 */
+	int numEdges()
+	{
+		return targets.length;
+	}
+
+	/**
+	 * Look up the vertex id of a location
+	 * @param location The location of the vertex
+	 * @return the id of the vertex, or -1 if the location is not a vertex
+	 */
+	int indexOf(GeographicPoint location)
+	{
+		Integer id = ids.get(location);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Get the edge weights of a cost profile, compiling them the first
+	 * time the profile is used with this snapshot
+	 * @param profile The cost profile
+	 * @return the weight of each edge under profile
+	 */
+	CostProfile.Weights weights(CostProfile profile)
+	{
+		CostProfile.Weights w = weights.get(profile);
+		if (w == null) {
+			w = profile == CostProfile.SHORTEST
+					? new CostProfile.Weights(lengths, 1)
+					: profile.compile(this);
+			CostProfile.Weights raced = weights.putIfAbsent(profile, w);
+			if (raced != null) {
+				w = raced;
+			}
+		}
+		return w;
+	}
+
+	/**
+	 * Take a search context from the pool, or create one if every
+	 * pooled context is in use.  The context is ready for a new query.
+	 * Each call must be paired with releaseContext.
+	 * @return a context sized for this snapshot
+	 */
+	SearchContext acquireContext()
+	{
+		SearchContext ctx = contexts.poll();
+		if (ctx == null) {
+			ctx = new SearchContext(numVertices());
+		}
+		ctx.begin();
+		return ctx;
+	}
+
+	/**
+	 * Return a context to the pool once its query has finished
+	 * @param ctx The context to return
+	 */
+	void releaseContext(SearchContext ctx)
+	{
+		contexts.offer(ctx);
+	}
+
+}
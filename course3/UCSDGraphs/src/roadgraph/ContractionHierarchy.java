@@ -0,0 +1,460 @@
+/**
+ * Contraction Hierarchies preprocessing and queries
+ */
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * A Contraction Hierarchy (CH) over a CSRGraph.
+ *
+ * Preprocessing contracts the vertices one at a time, cheapest first by
+ * edge difference (shortcuts added minus edges removed) plus the number
+ * of neighbors already contracted.  Contracting v removes it from the
+ * remaining graph; for each pair of edges u->v->w a local witness search
+ * from u that avoids v decides whether a shortcut u->w is needed to keep
+ * the u-w distance.  A shortcut remembers the two edges it replaces, so
+ * it can be unpacked back into the chain of original MapEdges.
+ *
+ * A query runs Dijkstra forward from the start and backward from the
+ * goal, each only along edges that lead to a vertex contracted later.
+ * The shortest path is the best vertex settled by both searches.
+ *
+ * Preprocessing is expensive but done once per snapshot; queries then
+ * settle only a few hundred vertices even on the largest maps.
+ *
+ */
+final class ContractionHierarchy
+{
+	/** Witness searches give up after settling this many vertices */
+	private static final int WITNESS_SETTLE_LIMIT = 500;
+
+	private final CSRGraph csr;
+
+	/** The position of each vertex in the contraction order */
+	private final int[] rank;
+
+	// All CH edges, original ones first: an original edge has the CSR
+	// edge id in original[e] and -1 in first/second; a shortcut has
+	// original[e] == -1 and the two edges it replaces in first/second.
+	private int numEdges;
+	private int[] from;
+	private int[] to;
+	private double[] weight;
+	private int[] original;
+	private int[] first;
+	private int[] second;
+
+	// Edges of the upward graph: for each vertex, the edges leaving it
+	// towards a higher ranked vertex...
+	private int[] upOffsets;
+	private int[] upEdges;
+
+	// ...and the edges entering it from a higher ranked vertex, which
+	// the backward search follows in reverse.
+	private int[] downOffsets;
+	private int[] downEdges;
+
+	/**
+	 * Contract every vertex of csr and build the upward search graphs
+	 * @param csr The snapshot to build the hierarchy for
+	 */
+	ContractionHierarchy(CSRGraph csr)
+	{
+		this.csr = csr;
+		int n = csr.numVertices();
+		rank = new int[n];
+
+		int capacity = Math.max(16, csr.numEdges() * 2);
+		from = new int[capacity];
+		to = new int[capacity];
+		weight = new double[capacity];
+		original = new int[capacity];
+		first = new int[capacity];
+		second = new int[capacity];
+		numEdges = 0;
+
+		// Working adjacency of the graph being contracted
+		IntList[] out = new IntList[n];
+		IntList[] in = new IntList[n];
+		for (int v = 0; v < n; v++) {
+			out[v] = new IntList();
+			in[v] = new IntList();
+		}
+		for (int e = 0; e < csr.numEdges(); e++) {
+			if (csr.sources[e] != csr.targets[e]) {
+				int id = addEdge(csr.sources[e], csr.targets[e], csr.lengths[e], e, -1, -1);
+				out[csr.sources[e]].add(id);
+				in[csr.targets[e]].add(id);
+			}
+		}
+
+		contract(out, in);
+		buildUpwardGraphs();
+	}
+
+	/**
+	 * Find the shortest path from startId to goalId
+	 * @param startId The starting vertex
+	 * @param goalId The goal vertex
+	 * @param statsListener Receives the SearchStats of the search, or null
+	 * @return The intersections on the shortest path, including start and
+	 *   goal, as a view of its Route; or null if there is no path
+	 */
+	List<GeographicPoint> search(int startId, int goalId,
+			Consumer<SearchStats> statsListener)
+	{
+		long began = statsListener == null ? 0 : System.nanoTime();
+		SearchContext fwd = csr.acquireContext();
+		SearchContext bwd = csr.acquireContext();
+		try {
+			fwd.reachStart(startId);
+			fwd.heap.insertOrDecrease(startId, 0);
+			bwd.reachStart(goalId);
+			bwd.heap.insertOrDecrease(goalId, 0);
+
+			double mu = Double.POSITIVE_INFINITY;
+			int meet = -1;
+			int settled = 0;
+			int edgesRelaxed = 0;
+			while (true) {
+				boolean fwdDone = fwd.heap.isEmpty() || fwd.heap.peekKey() >= mu;
+				boolean bwdDone = bwd.heap.isEmpty() || bwd.heap.peekKey() >= mu;
+				if (fwdDone && bwdDone) {
+					break;
+				}
+				boolean forward = !fwdDone
+						&& (bwdDone || fwd.heap.peekKey() <= bwd.heap.peekKey());
+				SearchContext side = forward ? fwd : bwd;
+				SearchContext other = forward ? bwd : fwd;
+				int[] offsets = forward ? upOffsets : downOffsets;
+				int[] adjacent = forward ? upEdges : downEdges;
+				int[] ends = forward ? to : from;
+
+				int curr = side.heap.poll();
+				side.settle(curr);
+				settled++;
+				edgesRelaxed += offsets[curr + 1] - offsets[curr];
+				double currDistance = side.distance(curr);
+				double through = currDistance + other.distance(curr);
+				if (through < mu) {
+					mu = through;
+					meet = curr;
+				}
+				for (int i = offsets[curr]; i < offsets[curr + 1]; i++) {
+					int e = adjacent[i];
+					int next = ends[e];
+					double pathToNext = currDistance + weight[e];
+					if (pathToNext < side.distance(next)) {
+						side.reach(next, pathToNext, curr, e);
+						side.heap.insertOrDecrease(next, pathToNext);
+					}
+				}
+			}
+
+			if (statsListener != null) {
+				SearchStats.report(statsListener, "contractionHierarchy", began,
+						settled, edgesRelaxed, fwd.heap, bwd.heap);
+			}
+			if (meet < 0) {
+				return null;
+			}
+			return unpackPath(fwd, bwd, startId, goalId, meet, mu).getPoints();
+		}
+		finally {
+			csr.releaseContext(fwd);
+			csr.releaseContext(bwd);
+		}
+	}
+
+	/**
+	 * Unpack a CH edge into the original MapEdges it stands for
+	 * @param e A CH edge id
+	 * @return The chain of MapEdges, in order, that e replaces
+	 */
+	List<MapEdge> unpack(int e)
+	{
+		IntList ids = new IntList();
+		unpack(e, ids);
+		List<MapEdge> chain = new ArrayList<MapEdge>(ids.size());
+		for (int i = 0; i < ids.size(); i++) {
+			chain.add(csr.edges[ids.get(i)]);
+		}
+		return chain;
+	}
+
+	// Add the CSR edge ids of the chain CH edge e replaces to chain
+	private void unpack(int e, IntList chain)
+	{
+		IntList stack = new IntList();
+		stack.add(e);
+		while (stack.size() > 0) {
+			int top = stack.removeLast();
+			if (original[top] >= 0) {
+				chain.add(original[top]);
+			}
+			else {
+				// push the second half first so the first half comes out first
+				stack.add(second[top]);
+				stack.add(first[top]);
+			}
+		}
+	}
+
+	/**
+	 * @return the snapshot this hierarchy was built from
+	 */
+	CSRGraph snapshot()
+	{
+		return csr;
+	}
+
+	/**
+	 * @return the number of shortcut edges added by preprocessing
+	 */
+	int numShortcuts()
+	{
+		int count = 0;
+		for (int e = 0; e < numEdges; e++) {
+			if (original[e] < 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	// Build the path start..meet from the forward parents and
+	// meet..goal from the backward parents, unpacking shortcuts
+	private Route unpackPath(SearchContext fwd, SearchContext bwd,
+			int startId, int goalId, int meet, double cost)
+	{
+		LinkedList<Integer> chEdges = new LinkedList<Integer>();
+		for (int v = meet; v != startId; v = fwd.parent(v)) {
+			chEdges.addFirst(fwd.parentEdge(v));
+		}
+		for (int v = meet; v != goalId; v = bwd.parent(v)) {
+			chEdges.addLast(bwd.parentEdge(v));
+		}
+
+		IntList edges = new IntList();
+		for (int e : chEdges) {
+			unpack(e, edges);
+		}
+		int[] vertices = new int[edges.size() + 1];
+		vertices[0] = startId;
+		for (int i = 0; i < edges.size(); i++) {
+			vertices[i + 1] = csr.targets[edges.get(i)];
+		}
+		return new Route(csr, vertices, edges.toArray(), cost);
+	}
+
+	// Contract all vertices in order of increasing priority
+	private void contract(IntList[] out, IntList[] in)
+	{
+		int n = csr.numVertices();
+		boolean[] contracted = new boolean[n];
+		int[] contractedNeighbors = new int[n];
+		SearchContext witness = new SearchContext(n);
+		IntList shortcutFrom = new IntList();
+		IntList shortcutTo = new IntList();
+		IntList shortcutIn = new IntList();
+		IntList shortcutOut = new IntList();
+
+		IndexedMinHeap order = new IndexedMinHeap(n);
+		for (int v = 0; v < n; v++) {
+			findShortcuts(v, out, in, contracted, witness,
+					shortcutFrom, shortcutTo, shortcutIn, shortcutOut);
+			order.insertOrDecrease(v, priority(v, out, in, contracted,
+					contractedNeighbors, shortcutFrom.size()));
+		}
+
+		int nextRank = 0;
+		while (!order.isEmpty()) {
+			int v = order.poll();
+
+			// Lazy update: the priority may have grown since it was queued
+			findShortcuts(v, out, in, contracted, witness,
+					shortcutFrom, shortcutTo, shortcutIn, shortcutOut);
+			double p = priority(v, out, in, contracted, contractedNeighbors,
+					shortcutFrom.size());
+			if (!order.isEmpty() && p > order.peekKey()) {
+				order.insertOrDecrease(v, p);
+				continue;
+			}
+
+			for (int i = 0; i < shortcutFrom.size(); i++) {
+				int u = shortcutFrom.get(i);
+				int w = shortcutTo.get(i);
+				int e1 = shortcutIn.get(i);
+				int e2 = shortcutOut.get(i);
+				int id = addEdge(u, w, weight[e1] + weight[e2], -1, e1, e2);
+				out[u].add(id);
+				in[w].add(id);
+			}
+			contracted[v] = true;
+			rank[v] = nextRank++;
+			for (int i = 0; i < out[v].size(); i++) {
+				contractedNeighbors[to[out[v].get(i)]]++;
+			}
+			for (int i = 0; i < in[v].size(); i++) {
+				contractedNeighbors[from[in[v].get(i)]]++;
+			}
+		}
+	}
+
+	// Edge difference plus the number of contracted neighbors
+	private double priority(int v, IntList[] out, IntList[] in, boolean[] contracted,
+			int[] contractedNeighbors, int shortcuts)
+	{
+		int removed = 0;
+		for (int i = 0; i < out[v].size(); i++) {
+			if (!contracted[to[out[v].get(i)]]) {
+				removed++;
+			}
+		}
+		for (int i = 0; i < in[v].size(); i++) {
+			if (!contracted[from[in[v].get(i)]]) {
+				removed++;
+			}
+		}
+		return shortcuts - removed + contractedNeighbors[v];
+	}
+
+	// Find the shortcuts needed to contract v, as parallel lists of
+	// (source, target, incoming edge, outgoing edge)
+	private void findShortcuts(int v, IntList[] out, IntList[] in, boolean[] contracted,
+			SearchContext witness, IntList shortcutFrom, IntList shortcutTo,
+			IntList shortcutIn, IntList shortcutOut)
+	{
+		shortcutFrom.clear();
+		shortcutTo.clear();
+		shortcutIn.clear();
+		shortcutOut.clear();
+
+		double maxOut = 0;
+		for (int j = 0; j < out[v].size(); j++) {
+			int e2 = out[v].get(j);
+			if (!contracted[to[e2]]) {
+				maxOut = Math.max(maxOut, weight[e2]);
+			}
+		}
+
+		for (int i = 0; i < in[v].size(); i++) {
+			int e1 = in[v].get(i);
+			int u = from[e1];
+			if (contracted[u]) {
+				continue;
+			}
+			witnessSearch(u, v, weight[e1] + maxOut, out, contracted, witness);
+			for (int j = 0; j < out[v].size(); j++) {
+				int e2 = out[v].get(j);
+				int w = to[e2];
+				if (contracted[w] || w == u) {
+					continue;
+				}
+				double via = weight[e1] + weight[e2];
+				if (witness.distance(w) > via) {
+					shortcutFrom.add(u);
+					shortcutTo.add(w);
+					shortcutIn.add(e1);
+					shortcutOut.add(e2);
+				}
+			}
+		}
+	}
+
+	// Dijkstra from u in the remaining graph without v, up to maxDistance
+	private void witnessSearch(int u, int v, double maxDistance, IntList[] out,
+			boolean[] contracted, SearchContext witness)
+	{
+		witness.begin();
+		witness.reachStart(u);
+		witness.heap.insertOrDecrease(u, 0);
+		int settled = 0;
+		while (!witness.heap.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+			if (witness.heap.peekKey() > maxDistance) {
+				break;
+			}
+			int curr = witness.heap.poll();
+			witness.settle(curr);
+			settled++;
+			double currDistance = witness.distance(curr);
+			IntList edges = out[curr];
+			for (int i = 0; i < edges.size(); i++) {
+				int e = edges.get(i);
+				int next = to[e];
+				if (next == v || contracted[next] || witness.isSettled(next)) {
+					continue;
+				}
+				double pathToNext = currDistance + weight[e];
+				if (pathToNext < witness.distance(next)) {
+					witness.reach(next, pathToNext, curr, e);
+					witness.heap.insertOrDecrease(next, pathToNext);
+				}
+			}
+		}
+	}
+
+	// Split the edges into the forward and backward upward graphs
+	private void buildUpwardGraphs()
+	{
+		int n = csr.numVertices();
+		upOffsets = new int[n + 1];
+		downOffsets = new int[n + 1];
+		for (int e = 0; e < numEdges; e++) {
+			if (rank[from[e]] < rank[to[e]]) {
+				upOffsets[from[e] + 1]++;
+			}
+			else {
+				downOffsets[to[e] + 1]++;
+			}
+		}
+		for (int v = 0; v < n; v++) {
+			upOffsets[v + 1] += upOffsets[v];
+			downOffsets[v + 1] += downOffsets[v];
+		}
+		upEdges = new int[upOffsets[n]];
+		downEdges = new int[downOffsets[n]];
+		int[] upFill = Arrays.copyOf(upOffsets, n);
+		int[] downFill = Arrays.copyOf(downOffsets, n);
+		for (int e = 0; e < numEdges; e++) {
+			if (rank[from[e]] < rank[to[e]]) {
+				upEdges[upFill[from[e]]++] = e;
+			}
+			else {
+				downEdges[downFill[to[e]]++] = e;
+			}
+		}
+	}
+
+	// Append an edge to the edge arrays, growing them as needed
+	private int addEdge(int u, int w, double length, int originalEdge,
+			int firstHalf, int secondHalf)
+	{
+		if (numEdges == from.length) {
+			int capacity = from.length * 2;
+			from = Arrays.copyOf(from, capacity);
+			to = Arrays.copyOf(to, capacity);
+			weight = Arrays.copyOf(weight, capacity);
+			original = Arrays.copyOf(original, capacity);
+			first = Arrays.copyOf(first, capacity);
+			second = Arrays.copyOf(second, capacity);
+		}
+		from[numEdges] = u;
+		to[numEdges] = w;
+		weight[numEdges] = length;
+		original[numEdges] = originalEdge;
+		first[numEdges] = firstHalf;
+		second[numEdges] = secondHalf;
+		return numEdges++;
+	}
+
+}
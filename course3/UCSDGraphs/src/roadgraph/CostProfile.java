@@ -0,0 +1,178 @@
+/**
+ * Edge costs for route searches
+ */
+package roadgraph;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * Decides what a road segment costs to drive along, from its road type
+ * (e.g. "residential" or "motorway") and its length in km.  The searches
+ * of MapGraph that take a CostProfile find the cheapest route under it
+ * rather than the shortest.
+ *
+ * A profile is compiled once per graph snapshot into an array of edge
+ * weights indexed like the CSR edges, so switching profiles between
+ * queries costs nothing and the MapEdges are never touched during a
+ * search.
+ *
+ */
+public abstract class CostProfile
+{
+	/** Cost is the length in km */
+	public static final CostProfile SHORTEST = new CostProfile("shortest") {
+		@Override
+		public double cost(String roadType, double length) {
+			return length;
+		}
+	};
+
+	/** Cost is the driving time in minutes at typical urban speeds */
+	public static final CostProfile FASTEST =
+			fastest("fastest", defaultSpeeds(), 35);
+
+	/** Cost is the length in km, with residential streets counting four times */
+	public static final CostProfile AVOID_RESIDENTIAL =
+			avoiding("avoidResidential", "residential", 4);
+
+	private final String name;
+
+	/**
+	 * Create a profile
+	 * @param name The name of the profile
+	 */
+	protected CostProfile(String name)
+	{
+		this.name = name;
+	}
+
+	/**
+	 * @return the name of this profile
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Get the cost of driving along a road segment.  The cost must not be
+	 * negative, and should grow with the length of the segment so that
+	 * A* can use the straight-line distance to bound the cost left.
+	 * @param roadType The type of the road, e.g. "residential"
+	 * @param length The length of the segment in km
+	 * @return the cost of the segment
+	 */
+	public abstract double cost(String roadType, double length);
+
+	/**
+	 * Create a profile whose cost is the driving time in minutes
+	 * @param name The name of the profile
+	 * @param speeds The speed in km/h of each road type
+	 * @param defaultSpeed The speed in km/h of road types not in speeds
+	 * @return the profile
+	 */
+	public static CostProfile fastest(String name, Map<String,Double> speeds,
+			final double defaultSpeed)
+	{
+		final Map<String,Double> table = new HashMap<String,Double>(speeds);
+		return new CostProfile(name) {
+			@Override
+			public double cost(String roadType, double length) {
+				Double speed = table.get(roadType);
+				return length * 60 / (speed == null ? defaultSpeed : speed);
+			}
+		};
+	}
+
+	/**
+	 * Create a profile whose cost is the length in km, with the segments
+	 * of one road type counting extra
+	 * @param name The name of the profile
+	 * @param roadType The road type to avoid
+	 * @param penalty The factor, at least 1, its length is multiplied by
+	 * @return the profile
+	 */
+	public static CostProfile avoiding(String name, final String roadType,
+			final double penalty)
+	{
+		if (penalty < 1) {
+			throw new IllegalArgumentException("avoiding: penalty must be at least 1");
+		}
+		return new CostProfile(name) {
+			@Override
+			public double cost(String type, double length) {
+				return roadType.equals(type) ? length * penalty : length;
+			}
+		};
+	}
+
+	/**
+	 * @return the typical speeds in km/h used by FASTEST, by road type
+	 */
+	public static Map<String,Double> defaultSpeeds()
+	{
+		Map<String,Double> speeds = new HashMap<String,Double>();
+		speeds.put("motorway", 100.0);
+		speeds.put("motorway_link", 60.0);
+		speeds.put("trunk", 80.0);
+		speeds.put("trunk_link", 50.0);
+		speeds.put("primary", 65.0);
+		speeds.put("primary_link", 45.0);
+		speeds.put("secondary", 55.0);
+		speeds.put("secondary_link", 40.0);
+		speeds.put("tertiary", 45.0);
+		speeds.put("tertiary_link", 35.0);
+		speeds.put("unclassified", 40.0);
+		speeds.put("residential", 30.0);
+		speeds.put("living_street", 10.0);
+		return Collections.unmodifiableMap(speeds);
+	}
+
+	/**
+	 * Compute the weight of every edge of a snapshot under this profile
+	 * @param csr The snapshot
+	 * @return the compiled weights
+	 */
+	Weights compile(CSRGraph csr)
+	{
+		double[] weights = new double[csr.numEdges()];
+		double perKm = Double.POSITIVE_INFINITY;
+		for (int e = 0; e < weights.length; e++) {
+			double length = csr.lengths[e];
+			weights[e] = cost(csr.edges[e].getRoadType(), length);
+			if (weights[e] < 0) {
+				throw new IllegalStateException("CostProfile " + name
+						+ ": negative cost for edge " + csr.edges[e]);
+			}
+			if (length > 0) {
+				perKm = Math.min(perKm, weights[e] / length);
+			}
+		}
+		return new Weights(weights, perKm == Double.POSITIVE_INFINITY ? 0 : perKm);
+	}
+
+	/** A profile compiled for one snapshot */
+	static final class Weights
+	{
+		/** The cost of each edge, indexed by CSR edge id */
+		final double[] edges;
+
+		/**
+		 * The smallest cost per km of any edge.  No edge is shorter than the
+		 * straight line between its ends, so this times the straight-line
+		 * distance never overestimates the cost of a route.
+		 */
+		final double perKm;
+
+		Weights(double[] edges, double perKm)
+		{
+			this.edges = edges;
+			this.perKm = perKm;
+		}
+	}
+
+}
@@ -0,0 +1,335 @@
+/**
+ * Parallel delta-stepping single-source shortest paths on a CSRGraph
+ */
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * Distances from one vertex to every other with the delta-stepping
+ * algorithm of Meyer and Sanders.  Tentative distances are kept in
+ * buckets of width delta.  The lowest non-empty bucket is emptied
+ * repeatedly, relaxing the light edges (weight at most delta) of its
+ * vertices, which can only refill the same or later buckets; once it
+ * stays empty, the heavy edges of every vertex it held are relaxed.
+ * Each batch of relaxations runs in parallel on the common
+ * ForkJoinPool, lowering distances with a compare-and-set on their
+ * bits (non-negative doubles order like their bit patterns as longs).
+ *
+ * delta is a few times the mean edge weight, so a bucket holds a wide
+ * band of the search front: enough vertices to share between cores,
+ * yet few of them are settled with a distance that is later lowered.
+ *
+ * Parents are not tracked during the search, where two threads could
+ * record them for different distances; afterwards the parent of each
+ * vertex is an in-neighbour whose distance plus the edge weight is
+ * exactly its own, which is how that distance was computed.  Where the
+ * only such neighbours are as far away as the vertex itself, over edges
+ * that cost nothing, the parents are chosen outwards from the vertices
+ * that already have one, so that they cannot form a cycle.
+ *
+ */
+final class DeltaStepping
+{
+	/** delta as a multiple of the mean edge weight */
+	private static final double DELTA_EDGES = 4;
+
+	/** Batches smaller than this are relaxed on the calling thread */
+	private static final int PARALLEL_BATCH = 512;
+
+	private static final long INFINITY = Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+
+	private DeltaStepping() {}
+
+	/**
+	 * Compute the distance between source and every vertex
+	 * @param csr The graph to search
+	 * @param weights The cost of each edge, non-negative
+	 * @param source The vertex to measure from
+	 * @param forward true for distances from source along the edges, false
+	 *   for distances to source
+	 * @param statsListener Receives the SearchStats of the search, or null
+	 * @return the distance of each vertex, infinity where there is no path
+	 */
+	static double[] distances(CSRGraph csr, double[] weights, int source, boolean forward,
+			Consumer<SearchStats> statsListener)
+	{
+		long began = statsListener == null ? 0 : System.nanoTime();
+		int n = csr.numVertices();
+		double delta = delta(weights);
+		AtomicLongArray dist = new AtomicLongArray(n);
+		for (int v = 0; v < n; v++) {
+			dist.lazySet(v, INFINITY);
+		}
+		dist.set(source, Double.doubleToRawLongBits(0));
+
+		// the bucket each vertex was last added to, so it is added once
+		int[] queuedIn = new int[n];
+		Arrays.fill(queuedIn, -1);
+		List<IntList> buckets = new ArrayList<IntList>();
+		addToBucket(buckets, queuedIn, source, 0);
+
+		LongAdder edgesRelaxed = new LongAdder();
+		int settled = 0;
+		int pushes = 1;
+		int pops = 0;
+		int peakFrontier = 1;
+		IntList requests = new IntList();
+		for (int i = 0; i < buckets.size(); i++) {
+			IntList inBucket = new IntList();
+			IntList bucket;
+			while ((bucket = buckets.get(i)) != null && bucket.size() > 0) {
+				buckets.set(i, null);
+				pops += bucket.size();
+				peakFrontier = Math.max(peakFrontier, bucket.size());
+				// skip entries left behind when a distance dropped to an earlier bucket
+				IntList current = new IntList();
+				for (int j = 0; j < bucket.size(); j++) {
+					int v = bucket.get(j);
+					if (queuedIn[v] == i) {
+						queuedIn[v] = -1;
+						current.add(v);
+						inBucket.add(v);
+					}
+				}
+				requests.clear();
+				relax(csr, weights, dist, current.toArray(), forward, delta, true,
+						edgesRelaxed, requests);
+				pushes += enqueue(buckets, queuedIn, dist, requests, delta);
+			}
+			int[] done = distinct(inBucket, queuedIn);
+			requests.clear();
+			relax(csr, weights, dist, done, forward, delta, false, edgesRelaxed, requests);
+			pushes += enqueue(buckets, queuedIn, dist, requests, delta);
+			settled += done.length;
+			buckets.set(i, null);
+		}
+
+		double[] distances = new double[n];
+		for (int v = 0; v < n; v++) {
+			distances[v] = distance(dist, v);
+		}
+		if (statsListener != null) {
+			int relaxed = (int)Math.min(Integer.MAX_VALUE, edgesRelaxed.sum());
+			statsListener.accept(new SearchStats("shortestPathTree", settled, relaxed, pushes,
+					pops, pops - settled, peakFrontier, System.nanoTime() - began));
+		}
+		return distances;
+	}
+
+	/**
+	 * Find the edge into each vertex on a shortest path from source
+	 * @param csr The graph searched
+	 * @param weights The cost of each edge
+	 * @param distances The distances computed by distances(..., true, ...)
+	 * @param source The vertex they were measured from
+	 * @return the CSR edge into each vertex, or -1 for source and for
+	 *   vertices that cannot be reached
+	 */
+	static int[] parentEdges(CSRGraph csr, double[] weights, double[] distances, int source)
+	{
+		int[] parentEdge = new int[csr.numVertices()];
+		IntStream.range(0, parentEdge.length).parallel().forEach(v -> {
+			parentEdge[v] = -1;
+			if (v == source || distances[v] == Double.POSITIVE_INFINITY) {
+				return;
+			}
+			for (int i = csr.reverseOffsets[v]; i < csr.reverseOffsets[v + 1]; i++) {
+				int e = csr.reverseEdges[i];
+				double from = distances[csr.sources[e]];
+				if (from + weights[e] == distances[v] && from < distances[v]) {
+					parentEdge[v] = e;
+					return;
+				}
+			}
+		});
+
+		// The rest are reached only from in-neighbours at the same distance,
+		// over edges that cost nothing.  Picking any of them could make a
+		// cycle, so each takes its parent from a pass outwards over such
+		// edges, starting at the vertices that already lead to source.
+		IntList queue = new IntList();
+		for (int v = 0; v < parentEdge.length; v++) {
+			if (parentEdge[v] >= 0 || v == source || distances[v] == Double.POSITIVE_INFINITY) {
+				continue;
+			}
+			for (int i = csr.reverseOffsets[v]; i < csr.reverseOffsets[v + 1]; i++) {
+				int e = csr.reverseEdges[i];
+				int u = csr.sources[e];
+				if ((u == source || parentEdge[u] >= 0) && isTied(weights, distances, e, u, v)) {
+					parentEdge[v] = e;
+					queue.add(v);
+					break;
+				}
+			}
+		}
+		for (int j = 0; j < queue.size(); j++) {
+			int u = queue.get(j);
+			for (int e = csr.offsets[u]; e < csr.offsets[u + 1]; e++) {
+				int v = csr.targets[e];
+				if (v != source && parentEdge[v] < 0 && isTied(weights, distances, e, u, v)) {
+					parentEdge[v] = e;
+					queue.add(v);
+				}
+			}
+		}
+		return parentEdge;
+	}
+
+	// Whether edge e from u to v is on a shortest path to v, with u at the
+	// same distance as v
+	private static boolean isTied(double[] weights, double[] distances, int e, int u, int v)
+	{
+		return distances[u] == distances[v] && distances[u] + weights[e] == distances[v];
+	}
+
+	// Relax the light or the heavy edges out of (or, backwards, into) the
+	// given vertices, adding each vertex whose distance drops to requests
+	private static void relax(CSRGraph csr, double[] weights, AtomicLongArray dist,
+			int[] vertices, boolean forward, double delta, boolean light,
+			LongAdder edgesRelaxed, IntList requests)
+	{
+		if (vertices.length < PARALLEL_BATCH) {
+			edgesRelaxed.add(relaxRange(csr, weights, dist, vertices, 0, vertices.length,
+					forward, delta, light, requests));
+			return;
+		}
+		int tasks = Math.min(vertices.length / PARALLEL_BATCH,
+				4 * Runtime.getRuntime().availableProcessors());
+		IntList[] lowered = new IntList[tasks];
+		IntStream.range(0, tasks).parallel().forEach(t -> {
+			lowered[t] = new IntList();
+			int begin = (int)((long)vertices.length * t / tasks);
+			int end = (int)((long)vertices.length * (t + 1) / tasks);
+			edgesRelaxed.add(relaxRange(csr, weights, dist, vertices, begin, end,
+					forward, delta, light, lowered[t]));
+		});
+		for (IntList list : lowered) {
+			for (int j = 0; j < list.size(); j++) {
+				requests.add(list.get(j));
+			}
+		}
+	}
+
+	private static int relaxRange(CSRGraph csr, double[] weights, AtomicLongArray dist,
+			int[] vertices, int begin, int end, boolean forward, double delta,
+			boolean light, IntList lowered)
+	{
+		int relaxed = 0;
+		for (int j = begin; j < end; j++) {
+			int u = vertices[j];
+			double du = distance(dist, u);
+			int first = forward ? csr.offsets[u] : csr.reverseOffsets[u];
+			int last = forward ? csr.offsets[u + 1] : csr.reverseOffsets[u + 1];
+			for (int i = first; i < last; i++) {
+				int e = forward ? i : csr.reverseEdges[i];
+				double w = weights[e];
+				if ((w <= delta) != light) {
+					continue;
+				}
+				relaxed++;
+				int v = forward ? csr.targets[e] : csr.sources[e];
+				if (lower(dist, v, du + w)) {
+					lowered.add(v);
+				}
+			}
+		}
+		return relaxed;
+	}
+
+	// Set v's distance to d if that is lower, returning whether it was
+	private static boolean lower(AtomicLongArray dist, int v, double d)
+	{
+		long bits = Double.doubleToRawLongBits(d);
+		while (true) {
+			long old = dist.get(v);
+			if (bits >= old) {
+				return false;
+			}
+			if (dist.compareAndSet(v, old, bits)) {
+				return true;
+			}
+		}
+	}
+
+	// Put each lowered vertex into the bucket of its new distance
+	private static int enqueue(List<IntList> buckets, int[] queuedIn, AtomicLongArray dist,
+			IntList requests, double delta)
+	{
+		int added = 0;
+		for (int j = 0; j < requests.size(); j++) {
+			int v = requests.get(j);
+			int b = bucketOf(distance(dist, v), delta);
+			if (queuedIn[v] != b) {
+				addToBucket(buckets, queuedIn, v, b);
+				added++;
+			}
+		}
+		return added;
+	}
+
+	private static void addToBucket(List<IntList> buckets, int[] queuedIn, int v, int b)
+	{
+		while (buckets.size() <= b) {
+			buckets.add(null);
+		}
+		IntList bucket = buckets.get(b);
+		if (bucket == null) {
+			bucket = new IntList();
+			buckets.set(b, bucket);
+		}
+		bucket.add(v);
+		queuedIn[v] = b;
+	}
+
+	// The vertices of list without repeats, using queuedIn (where every
+	// vertex of a finished bucket is -1) to mark the ones already seen
+	private static int[] distinct(IntList list, int[] queuedIn)
+	{
+		IntList result = new IntList();
+		for (int j = 0; j < list.size(); j++) {
+			int v = list.get(j);
+			if (queuedIn[v] == -1) {
+				queuedIn[v] = -2;
+				result.add(v);
+			}
+		}
+		for (int j = 0; j < result.size(); j++) {
+			queuedIn[result.get(j)] = -1;
+		}
+		return result.toArray();
+	}
+
+	private static double distance(AtomicLongArray dist, int v)
+	{
+		return Double.longBitsToDouble(dist.get(v));
+	}
+
+	private static int bucketOf(double distance, double delta)
+	{
+		return (int)Math.min(Integer.MAX_VALUE - 1, distance / delta);
+	}
+
+	// A few times the mean of the finite edge weights
+	private static double delta(double[] weights)
+	{
+		double sum = 0;
+		int count = 0;
+		for (double w : weights) {
+			if (w != Double.POSITIVE_INFINITY) {
+				sum += w;
+				count++;
+			}
+		}
+		return count == 0 || sum == 0 ? 1 : DELTA_EDGES * sum / count;
+	}
+
+}
@@ -0,0 +1,221 @@
+/**
+ * Many-to-many shortest path distances
+ */
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import geography.GeographicPoint;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * The shortest path distances, and optionally the paths, from every one
+ * of a list of origins to every one of a list of destinations.  Under a
+ * CostProfile other than SHORTEST the "distances" are the profile's costs.
+ *
+ * Each row is filled by one Dijkstra search from its origin that stops
+ * as soon as every destination has been settled, instead of one search
+ * per origin-destination pair.  The rows are computed in parallel on a
+ * ForkJoinPool, each search with its own pooled SearchContext.
+ *
+ */
+public class DistanceMatrix
+{
+	/** Rows per fork-join task below which the work is not split further */
+	private static final int ROWS_PER_TASK = 1;
+
+	private final List<GeographicPoint> origins;
+	private final List<GeographicPoint> destinations;
+	private final double[][] distances;
+	private final List<List<List<GeographicPoint>>> paths;
+
+	// Create an empty matrix to be filled in by compute
+	private DistanceMatrix(List<GeographicPoint> origins,
+			List<GeographicPoint> destinations, boolean withPaths)
+	{
+		this.origins = Collections.unmodifiableList(new ArrayList<GeographicPoint>(origins));
+		this.destinations = Collections.unmodifiableList(
+				new ArrayList<GeographicPoint>(destinations));
+		distances = new double[origins.size()][destinations.size()];
+		if (withPaths) {
+			paths = new ArrayList<List<List<GeographicPoint>>>(origins.size());
+			for (int i = 0; i < origins.size(); i++) {
+				List<List<GeographicPoint>> row =
+						new ArrayList<List<GeographicPoint>>(destinations.size());
+				for (int j = 0; j < destinations.size(); j++) {
+					row.add(null);
+				}
+				paths.add(row);
+			}
+		}
+		else {
+			paths = null;
+		}
+	}
+
+	/**
+	 * @return the origins, one per row
+	 */
+	public List<GeographicPoint> getOrigins()
+	{
+		return origins;
+	}
+
+	/**
+	 * @return the destinations, one per column
+	 */
+	public List<GeographicPoint> getDestinations()
+	{
+		return destinations;
+	}
+
+	/**
+	 * Get the length of the shortest path from an origin to a destination
+	 * @param origin The row, an index into getOrigins()
+	 * @param destination The column, an index into getDestinations()
+	 * @return the distance in km, or Double.POSITIVE_INFINITY if there is
+	 *   no path or either point is not in the graph
+	 */
+	public double getDistance(int origin, int destination)
+	{
+		return distances[origin][destination];
+	}
+
+	/**
+	 * Get the shortest path from an origin to a destination
+	 * @param origin The row, an index into getOrigins()
+	 * @param destination The column, an index into getDestinations()
+	 * @return the intersections on the path, including both ends, or null
+	 *   if there is no path
+	 * @throws IllegalStateException if the matrix was computed without paths
+	 */
+	public List<GeographicPoint> getPath(int origin, int destination)
+	{
+		if (paths == null) {
+			throw new IllegalStateException("getPath: matrix was computed without paths");
+		}
+		return paths.get(origin).get(destination);
+	}
+
+	/**
+	 * Compute the matrix on the given pool
+	 * @param csr The graph to search
+	 * @param weights The cost of each edge
+	 * @param origins The start points, one per row
+	 * @param destinations The end points, one per column
+	 * @param withPaths Whether to keep the paths as well as the distances
+	 * @param pool The pool to run the searches on
+	 * @return the filled in matrix
+	 */
+	static DistanceMatrix compute(CSRGraph csr, double[] weights, List<GeographicPoint> origins,
+			List<GeographicPoint> destinations, boolean withPaths, ForkJoinPool pool)
+	{
+		DistanceMatrix matrix = new DistanceMatrix(origins, destinations, withPaths);
+
+		int[] targetIds = new int[destinations.size()];
+		boolean[] isTarget = new boolean[csr.numVertices()];
+		int distinctTargets = 0;
+		for (int j = 0; j < targetIds.length; j++) {
+			targetIds[j] = csr.indexOf(destinations.get(j));
+			if (targetIds[j] >= 0 && !isTarget[targetIds[j]]) {
+				isTarget[targetIds[j]] = true;
+				distinctTargets++;
+			}
+		}
+
+		pool.invoke(matrix.new Rows(csr, weights, targetIds, isTarget, distinctTargets,
+				0, origins.size()));
+		return matrix;
+	}
+
+	/** Fills rows [from, to), splitting the range in half until it is small */
+	@SuppressWarnings("serial")
+	private class Rows extends RecursiveAction
+	{
+		private final CSRGraph csr;
+		private final double[] weights;
+		private final int[] targetIds;
+		private final boolean[] isTarget;
+		private final int distinctTargets;
+		private final int from;
+		private final int to;
+
+		Rows(CSRGraph csr, double[] weights, int[] targetIds, boolean[] isTarget,
+				int distinctTargets, int from, int to)
+		{
+			this.csr = csr;
+			this.weights = weights;
+			this.targetIds = targetIds;
+			this.isTarget = isTarget;
+			this.distinctTargets = distinctTargets;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= ROWS_PER_TASK) {
+				for (int i = from; i < to; i++) {
+					fillRow(i);
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Rows(csr, weights, targetIds, isTarget, distinctTargets, from, mid),
+					new Rows(csr, weights, targetIds, isTarget, distinctTargets, mid, to));
+		}
+
+		// One-to-many Dijkstra from origin i, stopping once every
+		// destination has been settled
+		private void fillRow(int i)
+		{
+			int startId = csr.indexOf(origins.get(i));
+			if (startId < 0) {
+				Arrays.fill(distances[i], Double.POSITIVE_INFINITY);
+				return;
+			}
+			SearchContext ctx = csr.acquireContext();
+			try {
+				ctx.reachStart(startId);
+				ctx.heap.insertOrDecrease(startId, 0);
+				int remaining = distinctTargets;
+				while (remaining > 0 && !ctx.heap.isEmpty()) {
+					int curr = ctx.heap.poll();
+					ctx.settle(curr);
+					if (isTarget[curr]) {
+						remaining--;
+					}
+					double currDistance = ctx.distance(curr);
+					for (int e = csr.offsets[curr]; e < csr.offsets[curr + 1]; e++) {
+						int next = csr.targets[e];
+						double pathToNext = currDistance + weights[e];
+						if (!ctx.isSettled(next) && pathToNext < ctx.distance(next)) {
+							ctx.reach(next, pathToNext, curr, e);
+							ctx.heap.insertOrDecrease(next, pathToNext);
+						}
+					}
+				}
+
+				for (int j = 0; j < targetIds.length; j++) {
+					int goalId = targetIds[j];
+					boolean found = goalId >= 0 && ctx.isSettled(goalId);
+					distances[i][j] = found ? ctx.distance(goalId) : Double.POSITIVE_INFINITY;
+					if (paths != null && found) {
+						paths.get(i).set(j, Route.fromParents(csr, ctx, startId, goalId).getPoints());
+					}
+				}
+			}
+			finally {
+				csr.releaseContext(ctx);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,22 @@
+/**
+ * A lower bound for A* searches
+ */
+package roadgraph;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * An estimate of the remaining distance from a vertex to the goal of
+ * an A* search.  To find shortest paths the estimate must never exceed
+ * the true distance, and to settle each vertex only once it must be
+ * consistent: estimate(u) <= length(u, v) + estimate(v) for every edge.
+ *
+ */
+interface Heuristic
+{
+	/**
+	 * @param v A vertex id
+	 * @return a lower bound on the distance from v to the goal
+	 */
+	double estimate(int v);
+}
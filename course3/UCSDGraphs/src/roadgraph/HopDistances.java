@@ -0,0 +1,102 @@
+/**
+ * The number of hops from one intersection to every other
+ */
+package roadgraph;
+
+import geography.GeographicPoint;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * The result of a whole-graph breadth first search: for every
+ * intersection, the fewest road segments on a path to it from the
+ * source.  See MapGraph.hopDistances and MapGraph.parallelHopDistances.
+ *
+ */
+public class HopDistances
+{
+	private final CSRGraph csr;
+	private final GeographicPoint source;
+	private final int[] hops;
+	private final int[] countAtHops;
+	private final int reached;
+
+	/**
+	 * @param csr The snapshot searched
+	 * @param source The location searched from
+	 * @param hops The hops to each vertex of csr, -1 where unreachable,
+	 *   or null if source is not in the graph
+	 */
+	HopDistances(CSRGraph csr, GeographicPoint source, int[] hops)
+	{
+		this.csr = csr;
+		this.source = source;
+		this.hops = hops;
+		int eccentricity = -1;
+		int count = 0;
+		if (hops != null) {
+			for (int h : hops) {
+				eccentricity = Math.max(eccentricity, h);
+			}
+		}
+		countAtHops = new int[eccentricity + 1];
+		if (hops != null) {
+			for (int h : hops) {
+				if (h >= 0) {
+					countAtHops[h]++;
+					count++;
+				}
+			}
+		}
+		reached = count;
+	}
+
+	/**
+	 * @return the location the hops are counted from
+	 */
+	public GeographicPoint getSource()
+	{
+		return source;
+	}
+
+	/**
+	 * Get the number of hops to an intersection
+	 * @param location An intersection
+	 * @return the fewest road segments on a path from the source to it,
+	 *   or -1 if it cannot be reached or is not in the graph
+	 */
+	public int getHops(GeographicPoint location)
+	{
+		int v = hops == null ? -1 : csr.indexOf(location);
+		return v < 0 ? -1 : hops[v];
+	}
+
+	/**
+	 * @return the number of intersections that can be reached, including
+	 *   the source itself
+	 */
+	public int getReachedCount()
+	{
+		return reached;
+	}
+
+	/**
+	 * @return the most hops to any reachable intersection, or -1 if the
+	 *   source is not in the graph
+	 */
+	public int getEccentricity()
+	{
+		return countAtHops.length - 1;
+	}
+
+	/**
+	 * Get the number of intersections a given number of hops away
+	 * @param h The number of hops
+	 * @return how many intersections are exactly h hops from the source
+	 */
+	public int getCountAtHops(int h)
+	{
+		return h >= 0 && h < countAtHops.length ? countAtHops[h] : 0;
+	}
+
+}
@@ -0,0 +1,242 @@
+/**
+ * A priority queue over int vertex ids
+ */
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * An indexed 4-ary min-heap of vertex ids 0..capacity-1 keyed by
+ * primitive doubles.  Each id is in the heap at most once, so instead
+ * of inserting a duplicate when a shorter path is found the search
+ * lowers the key in place and the heap never holds stale entries.
+ *
+ * The heap can be cleared and reused for the next query; clearing
+ * only touches the ids still left in the heap.  It also counts the
+ * inserts and the largest size since it was last cleared, for SearchStats.
+ *
+ */
+final class IndexedMinHeap
+{
+	private static final int ARITY = 4;
+
+	/** The ids in heap order */
+	private final int[] heap;
+
+	/** The key of each id in the heap */
+	private final double[] keys;
+
+	/** The position of each id in heap, or -1 if it is not in the heap */
+	private final int[] position;
+
+	private int size;
+
+	/** Inserts since the last clear, not counting decreased keys */
+	private int pushes;
+
+	/** The largest size since the last clear */
+	private int peakSize;
+
+	/**
+	 * Create an empty heap for ids 0..capacity-1
+	 * @param capacity The number of distinct ids the heap can hold
+	 */
+	IndexedMinHeap(int capacity)
+	{
+		heap = new int[capacity];
+		keys = new double[capacity];
+		position = new int[capacity];
+		Arrays.fill(position, -1);
+		size = 0;
+	}
+
+	/**
+	 * @return the number of ids this heap can hold
+	 */
+	int capacity()
+	{
+		return heap.length;
+	}
+
+	/**
+	 * @return the number of ids currently in the heap
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the number of ids inserted since the heap was last cleared;
+	 *   the number removed by poll is this minus size()
+	 */
+	int pushes()
+	{
+		return pushes;
+	}
+
+	/**
+	 * @return the largest size of the heap since it was last cleared
+	 */
+	int peakSize()
+	{
+		return peakSize;
+	}
+
+	/**
+	 * @return true if the heap is empty
+	 */
+	boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * @param id A vertex id
+	 * @return true if id is currently in the heap
+	 */
+	boolean contains(int id)
+	{
+		return position[id] >= 0;
+	}
+
+	/**
+	 * @param id A vertex id that is in the heap
+	 * @return the current key of id
+	 */
+	double key(int id)
+	{
+		return keys[id];
+	}
+
+	/**
+	 * @return the smallest key in the heap
+	 * @throws NoSuchElementException if the heap is empty
+	 */
+	double peekKey()
+	{
+		if (size == 0) {
+			throw new NoSuchElementException("Heap is empty");
+		}
+		return keys[heap[0]];
+	}
+
+	/**
+	 * Add id with the given key, or lower its key if it is already in
+	 * the heap with a larger one.
+	 * @param id The vertex id
+	 * @param key The new key
+	 * @return true if the heap changed
+	 */
+	boolean insertOrDecrease(int id, double key)
+	{
+		int pos = position[id];
+		if (pos < 0) {
+			keys[id] = key;
+			heap[size] = id;
+			position[id] = size;
+			siftUp(size++);
+			pushes++;
+			if (size > peakSize) {
+				peakSize = size;
+			}
+			return true;
+		}
+		if (key < keys[id]) {
+			keys[id] = key;
+			siftUp(pos);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Remove and return the id with the smallest key
+	 * @return the id with the smallest key
+	 * @throws NoSuchElementException if the heap is empty
+	 */
+	int poll()
+	{
+		if (size == 0) {
+			throw new NoSuchElementException("Heap is empty");
+		}
+		int min = heap[0];
+		position[min] = -1;
+		size--;
+		if (size > 0) {
+			int last = heap[size];
+			heap[0] = last;
+			position[last] = 0;
+			siftDown(0);
+		}
+		return min;
+	}
+
+	/**
+	 * Remove every id from the heap so it can be reused for another query.
+	 */
+	void clear()
+	{
+		for (int i = 0; i < size; i++) {
+			position[heap[i]] = -1;
+		}
+		size = 0;
+		pushes = 0;
+		peakSize = 0;
+	}
+
+	// Move the entry at pos up until its parent is not larger
+	private void siftUp(int pos)
+	{
+		int id = heap[pos];
+		double key = keys[id];
+		while (pos > 0) {
+			int parentPos = (pos - 1) / ARITY;
+			int parent = heap[parentPos];
+			if (keys[parent] <= key) {
+				break;
+			}
+			heap[pos] = parent;
+			position[parent] = pos;
+			pos = parentPos;
+		}
+		heap[pos] = id;
+		position[id] = pos;
+	}
+
+	// Move the entry at pos down until none of its children is smaller
+	private void siftDown(int pos)
+	{
+		int id = heap[pos];
+		double key = keys[id];
+		while (true) {
+			int first = pos * ARITY + 1;
+			if (first >= size) {
+				break;
+			}
+			int last = Math.min(first + ARITY, size);
+			int best = first;
+			double bestKey = keys[heap[first]];
+			for (int c = first + 1; c < last; c++) {
+				double k = keys[heap[c]];
+				if (k < bestKey) {
+					best = c;
+					bestKey = k;
+				}
+			}
+			if (bestKey >= key) {
+				break;
+			}
+			int child = heap[best];
+			heap[pos] = child;
+			position[child] = pos;
+			pos = best;
+		}
+		heap[pos] = id;
+		position[id] = pos;
+	}
+
+}
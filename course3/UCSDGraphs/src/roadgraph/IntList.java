@@ -0,0 +1,73 @@
+/**
+ * A growable list of ints
+ */
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * A growable list of primitive ints, for adjacency lists and results
+ * that would otherwise box every vertex id into an Integer.
+ *
+ */
+final class IntList
+{
+	private int[] values = new int[4];
+	private int size = 0;
+
+	/**
+	 * Append a value to the end of the list
+	 * @param value The value to add
+	 */
+	void add(int value)
+	{
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	/**
+	 * @param i An index less than size()
+	 * @return the value at index i
+	 */
+	int get(int i)
+	{
+		return values[i];
+	}
+
+	/**
+	 * Remove and return the last value
+	 * @return the value that was at the end of the list
+	 */
+	int removeLast()
+	{
+		return values[--size];
+	}
+
+	/**
+	 * @return the number of values in the list
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Remove all values, keeping the allocated space
+	 */
+	void clear()
+	{
+		size = 0;
+	}
+
+	/**
+	 * @return a copy of the values as an array
+	 */
+	int[] toArray()
+	{
+		return Arrays.copyOf(values, size);
+	}
+}
@@ -0,0 +1,325 @@
+/**
+ * Yen's k shortest loopless paths on a CSRGraph
+ */
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * Finds the k cheapest loopless paths between two vertices with Yen's
+ * algorithm.  Each new path is found by branching off an earlier one:
+ * for every vertex on it (the spur vertex) the path is kept up to that
+ * vertex (the root), the edges the earlier paths take out of it are
+ * banned along with the root's other vertices, and the cheapest way on
+ * to the goal (the spur path) is searched for.  The cheapest of all
+ * root + spur candidates is the next path.
+ *
+ * One backward Dijkstra from the goal, run once per query, gives the
+ * exact distance to the goal from every vertex in the unrestricted
+ * graph, and its tree is reused by every spur search:
+ *  - if the tree path from the spur vertex avoids the banned edges and
+ *    vertices it is the spur path, and no search is needed;
+ *  - otherwise the spur search is an A* using the tree distances as its
+ *    heuristic, which banning edges can only make an underestimate, so
+ *    it goes almost straight to the goal.
+ *
+ */
+final class KShortestPaths
+{
+	private KShortestPaths() {}
+
+	/**
+	 * Find up to k cheapest loopless paths from startId to goalId
+	 * @param csr The graph to search
+	 * @param weights The cost of each edge
+	 * @param startId The starting vertex
+	 * @param goalId The goal vertex
+	 * @param k The number of paths wanted
+	 * @param statsListener Receives the SearchStats of the query, or null
+	 * @return The paths, cheapest first, each as the intersections on it
+	 *   including start and goal (a view of its Route, with the edges
+	 *   Yen's algorithm chose); empty if goal cannot be reached
+	 */
+	static List<List<GeographicPoint>> search(CSRGraph csr, double[] weights,
+			int startId, int goalId, int k, Consumer<SearchStats> statsListener)
+	{
+		long began = statsListener == null ? 0 : System.nanoTime();
+		Counters counters = new Counters();
+		List<Path> found = new ArrayList<Path>();
+		SearchContext tree = csr.acquireContext();
+		SearchContext spur = csr.acquireContext();
+		try {
+			growTree(csr, weights, tree, goalId, counters);
+			if (k > 0 && tree.isReached(startId)) {
+				found.add(treePath(csr, tree, startId, goalId));
+			}
+
+			PriorityQueue<Path> candidates = new PriorityQueue<Path>();
+			Set<Path> seen = new HashSet<Path>(found);
+			boolean[] bannedEdge = new boolean[csr.numEdges()];
+			boolean[] bannedVertex = new boolean[csr.numVertices()];
+			while (found.size() > 0 && found.size() < k) {
+				Path last = found.get(found.size() - 1);
+				double rootCost = 0;
+				for (int i = 0; i < last.vertices.length - 1; i++) {
+					int spurVertex = last.vertices[i];
+					// ban the next step of every path sharing this root
+					for (Path p : found) {
+						if (p.vertices.length > i + 1 && sharesRoot(p, last, i)) {
+							banSteps(csr, bannedEdge, spurVertex, p.vertices[i + 1], true);
+						}
+					}
+					for (int j = 0; j < i; j++) {
+						bannedVertex[last.vertices[j]] = true;
+					}
+
+					Path spurPath = spurPath(csr, weights, tree, spur, spurVertex, goalId,
+							bannedEdge, bannedVertex, counters);
+					if (spurPath != null) {
+						Path candidate = join(last, i, rootCost, spurPath);
+						if (seen.add(candidate)) {
+							candidates.add(candidate);
+						}
+					}
+
+					for (Path p : found) {
+						if (p.vertices.length > i + 1 && sharesRoot(p, last, i)) {
+							banSteps(csr, bannedEdge, spurVertex, p.vertices[i + 1], false);
+						}
+					}
+					for (int j = 0; j < i; j++) {
+						bannedVertex[last.vertices[j]] = false;
+					}
+					rootCost += weights[last.edges[i]];
+				}
+				if (candidates.isEmpty()) {
+					break;
+				}
+				found.add(candidates.poll());
+			}
+		}
+		finally {
+			csr.releaseContext(tree);
+			csr.releaseContext(spur);
+		}
+
+		if (statsListener != null) {
+			statsListener.accept(new SearchStats("kShortestPaths", counters.settled,
+					counters.relaxed, counters.pushes, counters.settled, 0,
+					counters.peak, System.nanoTime() - began));
+		}
+		List<List<GeographicPoint>> paths = new ArrayList<List<GeographicPoint>>(found.size());
+		for (Path p : found) {
+			paths.add(new Route(csr, p.vertices, p.edges, p.cost).getPoints());
+		}
+		return paths;
+	}
+
+	// Backward Dijkstra from goalId over the whole graph; afterwards the
+	// parent of each vertex is its next vertex towards the goal
+	private static void growTree(CSRGraph csr, double[] weights, SearchContext tree,
+			int goalId, Counters counters)
+	{
+		tree.reachStart(goalId);
+		tree.heap.insertOrDecrease(goalId, 0);
+		while (!tree.heap.isEmpty()) {
+			int curr = tree.heap.poll();
+			tree.settle(curr);
+			counters.settled++;
+			double currDistance = tree.distance(curr);
+			for (int i = csr.reverseOffsets[curr]; i < csr.reverseOffsets[curr + 1]; i++) {
+				int e = csr.reverseEdges[i];
+				int prev = csr.sources[e];
+				counters.relaxed++;
+				double pathFromPrev = currDistance + weights[e];
+				if (!tree.isSettled(prev) && pathFromPrev < tree.distance(prev)) {
+					tree.reach(prev, pathFromPrev, curr, e);
+					tree.heap.insertOrDecrease(prev, pathFromPrev);
+				}
+			}
+		}
+		counters.addHeap(tree.heap);
+	}
+
+	// The path from v to goalId along the tree
+	private static Path treePath(CSRGraph csr, SearchContext tree,
+			int v, int goalId)
+	{
+		IntList vertices = new IntList();
+		IntList edges = new IntList();
+		vertices.add(v);
+		while (v != goalId) {
+			edges.add(tree.parentEdge(v));
+			v = tree.parent(v);
+			vertices.add(v);
+		}
+		return new Path(vertices.toArray(), edges.toArray(), tree.distance(vertices.get(0)));
+	}
+
+	// The cheapest path from spurVertex to goalId that avoids the banned
+	// edges and vertices, or null if there is none
+	private static Path spurPath(CSRGraph csr, double[] weights, SearchContext tree,
+			SearchContext spur, int spurVertex, int goalId, boolean[] bannedEdge,
+			boolean[] bannedVertex, Counters counters)
+	{
+		if (!tree.isReached(spurVertex)) {
+			return null;
+		}
+		// the tree path is optimal if nothing on it is banned
+		boolean clear = true;
+		for (int v = spurVertex; v != goalId && clear; v = tree.parent(v)) {
+			clear = !bannedEdge[tree.parentEdge(v)] && !bannedVertex[tree.parent(v)];
+		}
+		if (clear) {
+			return treePath(csr, tree, spurVertex, goalId);
+		}
+
+		// otherwise A* guided by the tree distances
+		spur.begin();
+		spur.reachStart(spurVertex);
+		spur.heap.insertOrDecrease(spurVertex, tree.distance(spurVertex));
+		boolean reached = false;
+		while (!spur.heap.isEmpty()) {
+			int curr = spur.heap.poll();
+			spur.settle(curr);
+			counters.settled++;
+			if (curr == goalId) {
+				reached = true;
+				break;
+			}
+			double currDistance = spur.distance(curr);
+			for (int e = csr.offsets[curr]; e < csr.offsets[curr + 1]; e++) {
+				int next = csr.targets[e];
+				counters.relaxed++;
+				if (bannedEdge[e] || bannedVertex[next] || spur.isSettled(next)
+						|| !tree.isReached(next)) {
+					continue;
+				}
+				double pathToNext = currDistance + weights[e];
+				if (pathToNext < spur.distance(next)) {
+					spur.reach(next, pathToNext, curr, e);
+					spur.heap.insertOrDecrease(next, pathToNext + tree.distance(next));
+				}
+			}
+		}
+		counters.addHeap(spur.heap);
+		if (!reached) {
+			return null;
+		}
+
+		IntList vertices = new IntList();
+		IntList edges = new IntList();
+		for (int v = goalId; v != spurVertex; v = spur.parent(v)) {
+			vertices.add(v);
+			edges.add(spur.parentEdge(v));
+		}
+		vertices.add(spurVertex);
+		int[] vs = vertices.toArray();
+		int[] es = edges.toArray();
+		reverse(vs);
+		reverse(es);
+		return new Path(vs, es, spur.distance(goalId));
+	}
+
+	// Whether a and b start with the same i + 1 vertices
+	private static boolean sharesRoot(Path a, Path b, int i)
+	{
+		for (int j = 0; j <= i; j++) {
+			if (a.vertices[j] != b.vertices[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Ban or unban every edge from u to v, so that a parallel edge cannot
+	// bring back the same sequence of intersections
+	private static void banSteps(CSRGraph csr, boolean[] bannedEdge, int u, int v,
+			boolean banned)
+	{
+		for (int e = csr.offsets[u]; e < csr.offsets[u + 1]; e++) {
+			if (csr.targets[e] == v) {
+				bannedEdge[e] = banned;
+			}
+		}
+	}
+
+	// The first i edges of root followed by spur
+	private static Path join(Path root, int i, double rootCost, Path spur)
+	{
+		int[] vertices = Arrays.copyOf(root.vertices, i + spur.vertices.length);
+		System.arraycopy(spur.vertices, 0, vertices, i, spur.vertices.length);
+		int[] edges = Arrays.copyOf(root.edges, i + spur.edges.length);
+		System.arraycopy(spur.edges, 0, edges, i, spur.edges.length);
+		return new Path(vertices, edges, rootCost + spur.cost);
+	}
+
+	private static void reverse(int[] a)
+	{
+		for (int i = 0, j = a.length - 1; i < j; i++, j--) {
+			int tmp = a[i];
+			a[i] = a[j];
+			a[j] = tmp;
+		}
+	}
+
+	/** A path as vertex and edge ids, ordered by cost; two paths through
+	 *  the same intersections are the same route */
+	private static final class Path implements Comparable<Path>
+	{
+		final int[] vertices;
+		final int[] edges;
+		final double cost;
+
+		Path(int[] vertices, int[] edges, double cost)
+		{
+			this.vertices = vertices;
+			this.edges = edges;
+			this.cost = cost;
+		}
+
+		@Override
+		public int compareTo(Path other)
+		{
+			return Double.compare(cost, other.cost);
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			return o instanceof Path && Arrays.equals(vertices, ((Path)o).vertices);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Arrays.hashCode(vertices);
+		}
+	}
+
+	/** Work done by all the searches of one query, for SearchStats */
+	private static final class Counters
+	{
+		int settled;
+		int relaxed;
+		int pushes;
+		int peak;
+
+		void addHeap(IndexedMinHeap heap)
+		{
+			pushes += heap.pushes();
+			peak = Math.max(peak, heap.peakSize());
+		}
+	}
+
+}
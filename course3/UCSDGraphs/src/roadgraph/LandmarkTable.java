@@ -0,0 +1,327 @@
+/**
+ * Landmark distance tables for the ALT heuristic
+ */
+package roadgraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import geography.GeographicPoint;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * Precomputed shortest-path distances to and from a few landmark
+ * vertices, used as the heuristic of A* with landmarks and the
+ * triangle inequality (ALT).  For any landmark L the triangle
+ * inequality gives two lower bounds on the distance from v to goal t:
+ *
+ *   d(L,t) - d(L,v)   and   d(v,L) - d(t,L)
+ *
+ * and the heuristic is the largest of them over all landmarks.  On road
+ * networks this is far tighter than the straight-line distance, because
+ * the landmark distances already account for rivers and freeways.
+ *
+ * Landmarks are picked by farthest selection: each new landmark is the
+ * vertex farthest from the ones already chosen.  The tables are stored
+ * flattened, one row of numVertices entries per landmark.
+ *
+ * Saved tables start with the number of vertices and edges and a
+ * fingerprint of every edge with its length, so tables saved before a
+ * road changed length are computed again rather than giving bounds
+ * that are no longer lower bounds.
+ *
+ */
+final class LandmarkTable
+{
+	private static final int MAGIC = 0x4c4d4b32; // "LMK2"
+
+	private final CSRGraph csr;
+
+	/** The vertex id of each landmark */
+	private final int[] landmarks;
+
+	/** fromLandmark[l * n + v] is the distance from landmark l to v */
+	private final double[] fromLandmark;
+
+	/** toLandmark[l * n + v] is the distance from v to landmark l */
+	private final double[] toLandmark;
+
+	// Build from already computed tables
+	private LandmarkTable(CSRGraph csr, int[] landmarks, double[] fromLandmark,
+			double[] toLandmark)
+	{
+		this.csr = csr;
+		this.landmarks = landmarks;
+		this.fromLandmark = fromLandmark;
+		this.toLandmark = toLandmark;
+	}
+
+	/**
+	 * Select count landmarks by farthest selection and compute their tables
+	 * @param csr The graph to build the tables for
+	 * @param count The number of landmarks
+	 * @return the landmark tables
+	 */
+	static LandmarkTable compute(CSRGraph csr, int count)
+	{
+		int n = csr.numVertices();
+		count = Math.min(count, n);
+		int[] landmarks = new int[count];
+		double[] from = new double[count * n];
+		double[] to = new double[count * n];
+
+		// Distance from each vertex to the nearest chosen landmark, in
+		// either direction; the next landmark maximizes it
+		double[] nearest = new double[n];
+		Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+
+		// Start from the vertex farthest from an arbitrary one
+		int next = 0;
+		if (n > 0) {
+			fillDistances(csr, 0, true, to, 0);
+			next = farthest(to, 0, n, landmarks, 0);
+		}
+		for (int l = 0; l < count; l++) {
+			landmarks[l] = next;
+			fillDistances(csr, next, true, from, l * n);
+			fillDistances(csr, next, false, to, l * n);
+			for (int v = 0; v < n; v++) {
+				nearest[v] = Math.min(nearest[v],
+						Math.min(from[l * n + v], to[l * n + v]));
+			}
+			next = farthest(nearest, 0, n, landmarks, l + 1);
+		}
+		return new LandmarkTable(csr, landmarks, from, to);
+	}
+
+	/**
+	 * Load tables saved by save, if they match the graph
+	 * @param csr The graph the tables are for
+	 * @param file The file to load
+	 * @return the landmark tables, or null if the file does not exist,
+	 *   was written for a different graph or is not a whole table
+	 * @throws IOException if the file cannot be read
+	 */
+	static LandmarkTable load(CSRGraph csr, File file) throws IOException
+	{
+		if (!file.isFile()) {
+			return null;
+		}
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+		try {
+			int n = csr.numVertices();
+			if (in.readInt() != MAGIC || in.readInt() != n
+					|| in.readInt() != csr.numEdges()
+					|| in.readLong() != fingerprint(csr)) {
+				return null;
+			}
+			// Vertex ids depend on load order, so map the saved vertices
+			// back to ids by location
+			int[] ids = new int[n];
+			for (int i = 0; i < n; i++) {
+				double lat = in.readDouble();
+				double lon = in.readDouble();
+				ids[i] = csr.indexOf(new GeographicPoint(lat, lon));
+				if (ids[i] < 0) {
+					return null;
+				}
+			}
+			int count = in.readInt();
+			if (count < 0 || count > n
+					|| file.length() != 20 + 16L * n + 4 + 4L * count + 16L * count * n) {
+				return null;
+			}
+			int[] landmarks = new int[count];
+			for (int l = 0; l < count; l++) {
+				int i = in.readInt();
+				if (i < 0 || i >= n) {
+					return null;
+				}
+				landmarks[l] = ids[i];
+			}
+			double[] from = new double[count * n];
+			double[] to = new double[count * n];
+			for (int l = 0; l < count; l++) {
+				for (int i = 0; i < n; i++) {
+					from[l * n + ids[i]] = in.readDouble();
+				}
+				for (int i = 0; i < n; i++) {
+					to[l * n + ids[i]] = in.readDouble();
+				}
+			}
+			return new LandmarkTable(csr, landmarks, from, to);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Save the tables so that load can reuse them
+	 * @param file The file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	void save(File file) throws IOException
+	{
+		int n = csr.numVertices();
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(n);
+			out.writeInt(csr.numEdges());
+			out.writeLong(fingerprint(csr));
+			for (int v = 0; v < n; v++) {
+				out.writeDouble(csr.points[v].getX());
+				out.writeDouble(csr.points[v].getY());
+			}
+			out.writeInt(landmarks.length);
+			for (int l : landmarks) {
+				out.writeInt(l);
+			}
+			for (int l = 0; l < landmarks.length; l++) {
+				for (int v = 0; v < n; v++) {
+					out.writeDouble(fromLandmark[l * n + v]);
+				}
+				for (int v = 0; v < n; v++) {
+					out.writeDouble(toLandmark[l * n + v]);
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return the snapshot these tables were computed for
+	 */
+	CSRGraph snapshot()
+	{
+		return csr;
+	}
+
+	/**
+	 * @return the number of landmarks
+	 */
+	int size()
+	{
+		return landmarks.length;
+	}
+
+	/**
+	 * Get the ALT heuristic towards a goal.  The distances from and to the
+	 * goal are looked up once here rather than on every call.
+	 * @param goalId The goal vertex
+	 * @return the lower bound on the distance from any vertex to goalId
+	 */
+	Heuristic towards(final int goalId)
+	{
+		final int n = csr.numVertices();
+		final int count = landmarks.length;
+		final double[] fromToGoal = new double[count];
+		final double[] goalToLandmark = new double[count];
+		for (int l = 0; l < count; l++) {
+			fromToGoal[l] = fromLandmark[l * n + goalId];
+			goalToLandmark[l] = toLandmark[l * n + goalId];
+		}
+		return new Heuristic() {
+			@Override
+			public double estimate(int v) {
+				double best = 0;
+				for (int l = 0, row = 0; l < count; l++, row += n) {
+					// d(L,t) - d(L,v); skipped if L cannot reach v or t
+					double lv = fromLandmark[row + v];
+					if (lv != Double.POSITIVE_INFINITY
+							&& fromToGoal[l] != Double.POSITIVE_INFINITY) {
+						best = Math.max(best, fromToGoal[l] - lv);
+					}
+					// d(v,L) - d(t,L); skipped if t cannot reach L, and if
+					// t can but v cannot, v cannot reach t either
+					if (goalToLandmark[l] != Double.POSITIVE_INFINITY) {
+						double vl = toLandmark[row + v];
+						if (vl == Double.POSITIVE_INFINITY) {
+							return Double.POSITIVE_INFINITY;
+						}
+						best = Math.max(best, vl - goalToLandmark[l]);
+					}
+				}
+				return best;
+			}
+		};
+	}
+
+	// A hash of every edge's endpoints and length that does not depend
+	// on the order of the vertices and edges, which depends on load order
+	private static long fingerprint(CSRGraph csr)
+	{
+		long sum = 0;
+		for (int e = 0; e < csr.numEdges(); e++) {
+			GeographicPoint from = csr.points[csr.sources[e]];
+			GeographicPoint to = csr.points[csr.targets[e]];
+			long h = mix(Double.doubleToLongBits(from.getX()));
+			h = mix(h ^ Double.doubleToLongBits(from.getY()));
+			h = mix(h ^ Double.doubleToLongBits(to.getX()));
+			h = mix(h ^ Double.doubleToLongBits(to.getY()));
+			sum += mix(h ^ Double.doubleToLongBits(csr.lengths[e]));
+		}
+		return sum;
+	}
+
+	// The SplitMix64 finalizer
+	private static long mix(long x)
+	{
+		x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+		x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+		return x ^ (x >>> 31);
+	}
+
+	// Compute the distances from source (forward over outgoing edges, or
+	// backward over incoming ones) with a parallel delta-stepping search
+	// and copy them into table
+	private static void fillDistances(CSRGraph csr, int source, boolean forward,
+			double[] table, int row)
+	{
+		double[] distances = DeltaStepping.distances(csr, csr.lengths, source, forward, null);
+		System.arraycopy(distances, 0, table, row, distances.length);
+	}
+
+	// The vertex in [row, row+n) with the largest finite value that is not
+	// one of the first numChosen landmarks
+	private static int farthest(double[] values, int row, int n, int[] chosen,
+			int numChosen)
+	{
+		int best = 0;
+		double bestValue = -1;
+		for (int v = 0; v < n; v++) {
+			double value = values[row + v];
+			if (value != Double.POSITIVE_INFINITY && value > bestValue
+					&& !isChosen(chosen, numChosen, v)) {
+				best = v;
+				bestValue = value;
+			}
+		}
+		return best;
+	}
+
+	// Whether v is one of the first numChosen landmarks
+	private static boolean isChosen(int[] chosen, int numChosen, int v)
+	{
+		for (int l = 0; l < numChosen; l++) {
+			if (chosen[l] == v) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -7,6 +7,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import geography.GeographicPoint;
+import geography.RoadSegment;
 
 /**
  * @author UCSD Intermediate Programming MOOC team
@@ -29,6 +30,9 @@ class MapEdge
 	/** The length of the road segment, in km */
 	private double length;
 	
+	/** The shape of the road segment, or null if it was not loaded */
+	private RoadSegment segment;
+	
 	static final double DEFAULT_LENGTH = 0.01;
 	
 	
@@ -66,12 +70,28 @@ class MapEdge
 	 */	
 	MapEdge(String roadName, String roadType,
 			MapNode n1, MapNode n2, double length) 
+	{
+		this(roadName, roadType, n1, n2, length, null);
+	}
+	
+	/** 
+	 * Create a new MapEdge object with its road geometry
+	 * @param roadName  The name of the road
+	 * @param roadType  The type of the road
+	 * @param n1 The point at one end of the segment
+	 * @param n2 The point at the other end of the segment
+	 * @param length The length of the road segment
+	 * @param segment The shape of the road segment, or null
+	 */	
+	MapEdge(String roadName, String roadType,
+			MapNode n1, MapNode n2, double length, RoadSegment segment) 
 	{
 		this.roadName = roadName;
 		start = n1;
 		end = n2;
 		this.roadType = roadType;
 		this.length = length;
+		this.segment = segment;
 	}
 	
 	/**
@@ -109,6 +129,25 @@ class MapEdge
 		return length;
 	}
 	
+	/**
+	 * Get the road's type
+	 * @return the type of the road that this edge is on, e.g. "residential"
+	 */
+	String getRoadType()
+	{
+		return roadType;
+	}
+	
+	/**
+	 * Get the road's geometry
+	 * @return the shape of the road segment, or null if the graph was
+	 *   loaded without it
+	 */
+	RoadSegment getSegment()
+	{
+		return segment;
+	}
+	
 	/**
 	 * Get the road's name
 	 * @return the name of the road that this edge is on
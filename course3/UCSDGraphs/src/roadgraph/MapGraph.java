@@ -8,16 +8,21 @@
 package roadgraph;
 
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import geography.GeographicPoint;
+import geography.RoadSegment;
 import util.GraphLoader;
 
 /**
@@ -33,6 +38,37 @@ public class MapGraph {
 	// that contain those nodes.
 	private HashMap<GeographicPoint,MapNode> pointNodeMap;
 	private HashSet<MapEdge> edges;
+	
+	// Int-indexed copy of the graph used by the searches; null until
+	// first needed and reset whenever the graph changes.  Searches keep
+	// their state in contexts pooled by the snapshot, so any number of
+	// them may run at once as long as the graph is not being modified.
+	private volatile CSRGraph snapshot;
+	
+	// Contraction Hierarchy for the current snapshot, built on request
+	private volatile ContractionHierarchy hierarchy;
+	
+	// Landmark tables for ALT searches, set by prepareLandmarks
+	private volatile LandmarkTable landmarks;
+	
+	// k-d tree over the vertices of the current snapshot, built on request
+	private volatile SpatialIndex spatialIndex;
+	
+	// Incremented on every change to the graph; part of the route cache key
+	private volatile long version;
+	
+	// Routes returned by the searches, or null if caching is disabled
+	private volatile RouteCache routeCache;
+	
+	// Closed and slowed roads honoured by the searches, or null for none
+	private volatile RoadClosures roadClosures;
+	
+	// Receives the SearchStats of every search, or null for none
+	private volatile Consumer<SearchStats> statsListener;
+	
+	// The hook passed when the caller gives none.  The searches skip
+	// calling it altogether, so an unvisualized search pays nothing.
+	static final Consumer<GeographicPoint> NO_HOOK = (x) -> {};
 
 	
 	/** 
@@ -89,6 +125,7 @@ public class MapGraph {
 		if (n == null) {
 			n = new MapNode(location);
 			pointNodeMap.put(location, n);
+			graphChanged();
 			return true;
 		}
 		else {
@@ -110,6 +147,27 @@ public class MapGraph {
 	 */
 	public void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
 			String roadType, double length) throws IllegalArgumentException {
+		addEdge(from, to, roadName, roadType, length, null);
+	}
+
+	/**
+	 * Adds a directed edge to the graph from pt1 to pt2, with the shape of
+	 * the road between them.  Routes expand the shape on demand; see
+	 * Route.getGeometry.
+	 * Precondition: Both GeographicPoints have already been added to the graph
+	 * @param from The starting point of the edge
+	 * @param to The ending point of the edge
+	 * @param roadName The name of the road
+	 * @param roadType The type of the road
+	 * @param length The length of the road, in km
+	 * @param segment The road segment from from to to, or null
+	 * @throws IllegalArgumentException If the points have not already been
+	 *   added as nodes to the graph, if any of the arguments is null,
+	 *   or if the length is less than 0.
+	 */
+	public void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
+			String roadType, double length, RoadSegment segment)
+			throws IllegalArgumentException {
 
 		MapNode n1 = pointNodeMap.get(from);
 		MapNode n2 = pointNodeMap.get(to);
@@ -120,22 +178,218 @@ public class MapGraph {
 		if (n2 == null)
 			throw new NullPointerException("addEdge: pt2:"+to+"is not in graph");
 
-		MapEdge edge = new MapEdge(roadName, roadType, n1, n2, length);
+		MapEdge edge = new MapEdge(roadName, roadType, n1, n2, length, segment);
 		edges.add(edge);
 		n1.addEdge(edge);
-		
+		graphChanged();
 	}
 		
-	/** 
-	 * Get a set of neighbor nodes from a mapNode
-	 * @param node  The node to get the neighbors from
-	 * @return A set containing the MapNode objects that are the neighbors 
-	 * 	of node
+	/**
+	 * Start caching the routes returned by bfs, dijkstra and aStarSearch.
+	 * Repeated queries are then answered without searching.  Queries
+	 * given a nodeSearched hook always search, so the hook still sees
+	 * every vertex visited.  Cached routes are invalidated whenever the
+	 * graph changes.
+	 * @param capacity The largest number of routes to keep
+	 */
+	public void enableRouteCache(int capacity)
+	{
+		routeCache = new RouteCache(capacity);
+	}
+
+	/**
+	 * Stop caching routes and drop the routes cached so far
+	 */
+	public void disableRouteCache()
+	{
+		routeCache = null;
+	}
+
+	/**
+	 * Get the route cache, e.g. to read its hit, miss and eviction counts
+	 * @return the route cache, or null if caching is not enabled
+	 */
+	public RouteCache getRouteCache()
+	{
+		return routeCache;
+	}
+
+	// Answer a query from the route cache if it is enabled, running
+	// search on a miss.  A search with a hook always runs, since a cached
+	// route would leave whatever the hook shows (such as MapApp's search
+	// visualization) empty.
+	private List<GeographicPoint> cached(String algorithm, CostProfile profile,
+			RoadClosures closures, GeographicPoint start, GeographicPoint goal,
+			Consumer<GeographicPoint> nodeSearched, Supplier<List<GeographicPoint>> search)
+	{
+		RouteCache cache = routeCache;
+		if (cache == null || start == null || goal == null || nodeSearched != NO_HOOK) {
+			return search.get();
+		}
+		return cache.get(start, goal, algorithm, profile,
+				closures == null ? 0 : closures.getId(), version, search);
+	}
+
+	/**
+	 * Install road closures and slowdowns for all later searches, replacing
+	 * the previous ones in a single step.  Searches already running finish
+	 * with the closures they started with.  Contraction Hierarchy queries
+	 * run as bidirectional A* while closures are installed, since the
+	 * hierarchy is built for the open graph.
+	 * @param closures The closures to honour, or null to open every road
+	 */
+	public void setRoadClosures(RoadClosures closures)
+	{
+		roadClosures = closures;
+	}
+
+	/**
+	 * @return the closures installed by setRoadClosures, or null
+	 */
+	public RoadClosures getRoadClosures()
+	{
+		return roadClosures;
+	}
+
+	// The edge weights of a profile with the given closures applied
+	private static CostProfile.Weights weights(CSRGraph csr, CostProfile profile,
+			RoadClosures closures)
+	{
+		return closures == null ? csr.weights(profile) : closures.weights(csr, profile);
+	}
+
+	/**
+	 * Send the SearchStats of every search from now on to listener, for
+	 * example a SearchStatsRegistry.  Searches answered from the route
+	 * cache do not run and are not reported.  The listener is called on
+	 * the searching thread, so it must be thread-safe if searches run
+	 * concurrently.
+	 * @param listener Where to send the stats, or null to stop collecting
+	 *   them (the default), which makes the searches skip all timing
+	 */
+	public void setSearchStatsListener(Consumer<SearchStats> listener)
+	{
+		statsListener = listener;
+	}
+
+	/**
+	 * @return the listener set by setSearchStatsListener, or null
+	 */
+	public Consumer<SearchStats> getSearchStatsListener()
+	{
+		return statsListener;
+	}
+
+	/**
+	 * Drop everything derived from the previous version of the graph
+	 */
+	private void graphChanged()
+	{
+		version++;
+		RouteCache cache = routeCache;
+		if (cache != null) {
+			cache.clear();
+		}
+		snapshot = null;
+		hierarchy = null;
+		landmarks = null;
+		spatialIndex = null;
+	}
+	
+	/**
+	 * Get the compressed-sparse-row snapshot of this graph that the
+	 * searches run on.  The snapshot is built on first use and rebuilt
+	 * after the graph has been modified.
+	 * @return An immutable, int-indexed view of the current graph
 	 */
-	private Set<MapNode> getNeighbors(MapNode node) {
-		return node.getNeighbors();
+	CSRGraph snapshot()
+	{
+		CSRGraph csr = snapshot;
+		if (csr == null) {
+			synchronized (this) {
+				csr = snapshot;
+				if (csr == null) {
+					int numEdges = 0;
+					for (MapNode node : pointNodeMap.values()) {
+						numEdges += node.getEdges().size();
+					}
+					csr = new CSRGraph(pointNodeMap.values(), numEdges);
+					snapshot = csr;
+				}
+			}
+		}
+		return csr;
 	}
 	
+	/**
+	 * Snap a location to the closest intersection in the graph.
+	 * @param lat The latitude of the location
+	 * @param lon The longitude of the location
+	 * @return The closest vertex, or null if the graph is empty
+	 */
+	public GeographicPoint nearestVertex(double lat, double lon)
+	{
+		SpatialIndex index = spatialIndex();
+		int v = index.nearest(lat, lon);
+		return v < 0 ? null : index.snapshot().points[v];
+	}
+
+	/**
+	 * Find the k intersections closest to a location
+	 * @param lat The latitude of the location
+	 * @param lon The longitude of the location
+	 * @param k The number of vertices to return
+	 * @return Up to k vertices, closest first
+	 * @throws IllegalArgumentException if k is less than 1
+	 */
+	public List<GeographicPoint> nearestVertices(double lat, double lon, int k)
+	{
+		SpatialIndex index = spatialIndex();
+		return toPoints(index.snapshot(), index.nearest(lat, lon, k));
+	}
+
+	/**
+	 * Find the intersections inside a latitude/longitude box
+	 * @param minLat The southern edge of the box
+	 * @param minLon The western edge of the box
+	 * @param maxLat The northern edge of the box
+	 * @param maxLon The eastern edge of the box
+	 * @return The vertices in the box, in no particular order
+	 */
+	public List<GeographicPoint> verticesWithin(double minLat, double minLon,
+			double maxLat, double maxLon)
+	{
+		SpatialIndex index = spatialIndex();
+		return toPoints(index.snapshot(), index.within(minLat, minLon, maxLat, maxLon));
+	}
+
+	// Get the spatial index for the current snapshot, building it if needed
+	private SpatialIndex spatialIndex()
+	{
+		CSRGraph csr = snapshot();
+		SpatialIndex index = spatialIndex;
+		if (index == null || index.snapshot() != csr) {
+			synchronized (this) {
+				index = spatialIndex;
+				if (index == null || index.snapshot() != csr) {
+					index = new SpatialIndex(csr);
+					spatialIndex = index;
+				}
+			}
+		}
+		return index;
+	}
+
+	// The locations of the given vertex ids
+	private static List<GeographicPoint> toPoints(CSRGraph csr, int[] ids)
+	{
+		List<GeographicPoint> points = new ArrayList<GeographicPoint>(ids.length);
+		for (int v : ids) {
+			points.add(csr.points[v]);
+		}
+		return points;
+	}
+
 	/** Find the path from start to goal using breadth first search
 	 * 
 	 * @param start The starting location
@@ -145,7 +399,7 @@ public class MapGraph {
 	 */
 	public List<GeographicPoint> bfs(GeographicPoint start, GeographicPoint goal) {
 		// Dummy variable for calling the search algorithms
-        Consumer<GeographicPoint> temp = (x) -> {};
+        Consumer<GeographicPoint> temp = NO_HOOK;
         return bfs(start, goal, temp);
 	}
 	
@@ -161,84 +415,148 @@ public class MapGraph {
 			 					     GeographicPoint goal, 
 			 					     Consumer<GeographicPoint> nodeSearched)
 	{
-		/* Note that this method is a little long and we might think
-		 * about refactoring it to break it into shorter methods as we 
-		 * did in the Maze search code in week 2 */
-		
 		// Setup - check validity of inputs
 		if (start == null || goal == null)
 			throw new NullPointerException("Cannot find route from or to null node");
-		MapNode startNode = pointNodeMap.get(start);
-		MapNode endNode = pointNodeMap.get(goal);
-		if (startNode == null) {
+		RoadClosures closures = roadClosures;
+		return cached("bfs", CostProfile.SHORTEST, closures, start, goal, nodeSearched,
+				() -> bfsSearch(start, goal, closures, nodeSearched));
+	}
+
+	// Body of bfs, run when the route is not cached
+	private List<GeographicPoint> bfsSearch(GeographicPoint start, 
+			GeographicPoint goal, RoadClosures closures, 
+			Consumer<GeographicPoint> nodeSearched)
+	{
+		CSRGraph csr = snapshot();
+		BitSet closed = closures == null ? null : closures.closedEdges(csr);
+		int startId = csr.indexOf(start);
+		int goalId = csr.indexOf(goal);
+		if (startId < 0) {
 			System.err.println("Start node " + start + " does not exist");
 			return null;
 		}
-		if (endNode == null) {
+		if (goalId < 0) {
 			System.err.println("End node " + goal + " does not exist");
 			return null;
 		}
 
-		// setup to begin BFS
-		HashMap<MapNode,MapNode> parentMap = new HashMap<MapNode,MapNode>();
-		Queue<MapNode> toExplore = new LinkedList<MapNode>();
-		HashSet<MapNode> visited = new HashSet<MapNode>();
-		toExplore.add(startNode);
-		MapNode next = null;
-
-		while (!toExplore.isEmpty()) {
-			next = toExplore.remove();
-			
-			 // hook for visualization
-			nodeSearched.accept(next.getLocation());
-			
-			if (next.equals(endNode)) break;
-			Set<MapNode> neighbors = getNeighbors(next);
-			for (MapNode neighbor : neighbors) {
-				if (!visited.contains(neighbor)) {
-					visited.add(neighbor);
-					parentMap.put(neighbor, next);
-					toExplore.add(neighbor);
-				}
+		// level by level, top-down or bottom-up; the parents are
+		// recorded in the context like those of the other searches
+		SearchContext ctx = csr.acquireContext();
+		try {
+			if (!BreadthFirstSearch.path(csr, ctx, startId, goalId, closed, nodeSearched,
+					statsListener)) {
+				System.out.println("No path found from " +start+ " to " + goal);
+				return null;
 			}
+			// Reconstruct the parent path
+			return reconstructPath(csr, ctx, startId, goalId);
 		}
-		if (!next.equals(endNode)) {
-			System.out.println("No path found from " +start+ " to " + goal);
-			return null;
+		finally {
+			csr.releaseContext(ctx);
 		}
-		// Reconstruct the parent path
-		List<GeographicPoint> path =
-				reconstructPath(parentMap, startNode, endNode);
-
-		return path;
-	
 	}
 	
 
 
-	/** Reconstruct a path from start to goal using the parentMap
-	 *
-	 * @param parentMap the HashNode map of children and their parents
+	/** Count the hops (road segments) from start to every intersection
+	 * with a breadth first search over the whole graph
+	 * 
 	 * @param start The starting location
-	 * @param goal The goal location
+	 * @return The hop distances; empty if start is not in the graph
+	 */
+	public HopDistances hopDistances(GeographicPoint start)
+	{
+		return hopDistances(start, false);
+	}
+
+	/** Count the hops (road segments) from start to every intersection,
+	 * expanding each level of the breadth first search in parallel on
+	 * the common ForkJoinPool
+	 * 
+	 * @param start The starting location
+	 * @return The hop distances; empty if start is not in the graph
+	 */
+	public HopDistances parallelHopDistances(GeographicPoint start)
+	{
+		return hopDistances(start, true);
+	}
+
+	// Body of hopDistances and parallelHopDistances
+	private HopDistances hopDistances(GeographicPoint start, boolean parallel)
+	{
+		if (start == null)
+			throw new NullPointerException("Cannot count hops from null node");
+		CSRGraph csr = snapshot();
+		RoadClosures closures = roadClosures;
+		BitSet closed = closures == null ? null : closures.closedEdges(csr);
+		int startId = csr.indexOf(start);
+		int[] hops = startId < 0 ? null
+				: BreadthFirstSearch.hopDistances(csr, startId, closed, parallel, statsListener);
+		return new HopDistances(csr, start, hops);
+	}
+
+	/** Reconstruct a path from start to goal using the parents recorded
+	 *  in a search context
+	 *
+	 * @param csr The snapshot the search ran on
+	 * @param ctx The context of the search
+	 * @param start The starting vertex id
+	 * @param goal The goal vertex id
 	 * @return The list of intersections that form the shortest path from
-	 *   start to goal (including both start and goal).
+	 *   start to goal (including both start and goal), as a view of a
+	 *   Route that holds only their ids.
 	 */
 	private List<GeographicPoint>
-	reconstructPath(HashMap<MapNode,MapNode> parentMap,
-					MapNode start, MapNode goal)
+	reconstructPath(CSRGraph csr, SearchContext ctx, int start, int goal)
 	{
-		LinkedList<GeographicPoint> path = new LinkedList<GeographicPoint>();
-		MapNode current = goal;
+		return Route.fromParents(csr, ctx, start, goal).getPoints();
+	}
 
-		while (!current.equals(start)) {
-			path.addFirst(current.getLocation());
-			current = parentMap.get(current);
+	/** Get a path returned by a search as a Route, whose road geometry
+	 * can be expanded.  The paths returned by the searches of this class
+	 * are views of a Route already; for any other list of intersections,
+	 * each consecutive pair is joined by the shortest road between them.
+	 *
+	 * @param path The intersections of the path, in order
+	 * @return The route, or null if path is null or two consecutive
+	 *   intersections are not joined by a road
+	 */
+	public Route routeOf(List<GeographicPoint> path)
+	{
+		if (path == null || path.isEmpty()) {
+			return null;
 		}
-
-		// add start
-		path.addFirst(start.getLocation());
-		return path;
+		Route route = Route.of(path);
+		if (route != null) {
+			return route;
+		}
+		CSRGraph csr = snapshot();
+		int[] vertices = new int[path.size()];
+		int[] edges = new int[path.size() - 1];
+		double cost = 0;
+		for (int i = 0; i < vertices.length; i++) {
+			vertices[i] = csr.indexOf(path.get(i));
+			if (vertices[i] < 0) {
+				return null;
+			}
+			if (i > 0) {
+				int from = vertices[i - 1];
+				edges[i - 1] = -1;
+				for (int e = csr.offsets[from]; e < csr.offsets[from + 1]; e++) {
+					if (csr.targets[e] == vertices[i] && (edges[i - 1] < 0
+							|| csr.lengths[e] < csr.lengths[edges[i - 1]])) {
+						edges[i - 1] = e;
+					}
+				}
+				if (edges[i - 1] < 0) {
+					return null;
+				}
+				cost += csr.lengths[edges[i - 1]];
+			}
+		}
+		return new Route(csr, vertices, edges, cost);
 	}
 
 
@@ -252,7 +570,7 @@ public class MapGraph {
 	public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal) {
 		// Dummy variable for calling the search algorithms
 		// You do not need to change this method.
-        Consumer<GeographicPoint> temp = (x) -> {};
+        Consumer<GeographicPoint> temp = NO_HOOK;
         return dijkstra(start, goal, temp);
 	}
 	
@@ -267,83 +585,69 @@ public class MapGraph {
 	public List<GeographicPoint> dijkstra(GeographicPoint start, 
 										  GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
 	{
-		// Create MapNodes startNode and goalNode
-		MapNode startNode = pointNodeMap.get(start);
-		MapNode goalNode = pointNodeMap.get(goal);
-		
-		// Credit: USCD pseudocode algorithm
-		// Dijkstra(S, G):
-		// Initialize: Priority queue (PQ), visited HashSet, 
-		// parent HashMap, and distances to infinity 
-		PriorityQueue<MapNode> pq = new PriorityQueue<MapNode>();
-		HashSet<MapNode> visited = new HashSet<MapNode>();
-		HashMap<MapNode, MapNode> parent = new HashMap<MapNode, MapNode>();
-		for (MapNode mapNode : pointNodeMap.values()) {
-			mapNode.setDistance(Double.MAX_VALUE);
-		}
-		
-		// Enqueue {S, 0} onto the PQ
-		startNode.setDistance(0);
-		pq.add(startNode);
-		
-		// initialize visited counter
-		int visitedCounter = 0;
-		
-		// while PQ is not empty:
-		while(!pq.isEmpty()) {
-			// dequeue node curr from front of queue if(curr is not visited)
-			MapNode curr = pq.poll();
-			// increment visitedCounter
-			visitedCounter++;
-			
-			// print visiting
-			// System.out.println("DIJKSTRA visiting" + curr);
-			
-			if (!visited.contains(curr)) {
-				// add curr to visited set
-				visited.add(curr);
+		return dijkstra(start, goal, CostProfile.SHORTEST, nodeSearched);
+	}
 
-				// Hook for visualization.  See writeup.
-				nodeSearched.accept(curr.getLocation());
-				
-				// If curr == G return parent map
-				if (curr == goalNode) {
-					// print visitedCounter
-					System.out.println("Nodes visited in search: " + visitedCounter);
-					
-					return reconstructPath(parent, startNode, goalNode);
-				}
-				// for each of curr's neighbors, n, not in visited set:
-				for (MapNode n : curr.getNeighbors()) {
-					if (!visited.contains(n)) {
-						
-						// if path (from start) through curr to n is shorter 
-						double currToN = 0.0;
-						
-						// edge weight from curr to neighbor n node
-						for (MapEdge edge : edges) {
-							if (edge.getStartPoint() == curr.getLocation() && edge.getEndPoint() == n.getLocation()) {
-								currToN = edge.getLength();
-							}
-						}
-						
-						// distance from start to n
-						double pathToN = curr.getDistance() + currToN;
-						
-						if (pathToN < n.getDistance()) {
-							// update curr as n's parent in parent map
-							n.setDistance(pathToN);
-							parent.put(n, curr);
-							// enqueue {n, distance} into the PQ 
-							pq.add(n);
-						}
-					}
-				}
-			}
-		}
+	/** Find the cheapest path from start to goal under a cost profile
+	 *  using Dijkstra's algorithm
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param profile The cost of each road segment, e.g. CostProfile.FASTEST
+	 * @return The list of intersections that form the cheapest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> dijkstra(GeographicPoint start, 
+			GeographicPoint goal, CostProfile profile)
+	{
+		return dijkstra(start, goal, profile, NO_HOOK);
+	}
+
+	/** Find the cheapest path from start to goal under a cost profile
+	 *  using Dijkstra's algorithm
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param profile The cost of each road segment, e.g. CostProfile.FASTEST
+	 * @param nodeSearched A hook for visualization.  See assignment instructions for how to use it.
+	 * @return The list of intersections that form the cheapest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> dijkstra(GeographicPoint start, 
+			GeographicPoint goal, CostProfile profile, 
+			Consumer<GeographicPoint> nodeSearched)
+	{
+		return dijkstraSearch(start, goal, profile, roadClosures, nodeSearched);
+	}
+
+	/** Find the cheapest path from start to goal under a cost profile and
+	 *  a set of road closures, using Dijkstra's algorithm.  The closures
+	 *  apply to this query only, instead of those from setRoadClosures.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param profile The cost of each road segment, e.g. CostProfile.FASTEST
+	 * @param closures The closed and slowed roads, or null for none
+	 * @return The list of intersections that form the cheapest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> dijkstra(GeographicPoint start, 
+			GeographicPoint goal, CostProfile profile, RoadClosures closures)
+	{
+		return dijkstraSearch(start, goal, profile, closures, NO_HOOK);
+	}
 
-		// If we get here then there's no path		
-		return null;
+	// Body of the dijkstra methods
+	private List<GeographicPoint> dijkstraSearch(GeographicPoint start, 
+			GeographicPoint goal, CostProfile profile, RoadClosures closures, 
+			Consumer<GeographicPoint> nodeSearched)
+	{
+		// Dijkstra is A* with a heuristic of zero
+		return cached("dijkstra", profile, closures, start, goal, nodeSearched, () -> {
+			CSRGraph csr = snapshot();
+			return search("dijkstra", csr, start, goal, nodeSearched, 
+					weights(csr, profile, closures).edges, null);
+		});
 	}
 
 	/** Find the path from start to goal using A-Star search
@@ -355,7 +659,7 @@ public class MapGraph {
 	 */
 	public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal) {
 		// Dummy variable for calling the search algorithms
-        Consumer<GeographicPoint> temp = (x) -> {};
+        Consumer<GeographicPoint> temp = NO_HOOK;
         return aStarSearch(start, goal, temp);
 	}
 	
@@ -370,102 +674,593 @@ public class MapGraph {
 	public List<GeographicPoint> aStarSearch(GeographicPoint start, 
 											 GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
 	{
-		// Create MapNodes startNode and goalNode
-		MapNode startNode = pointNodeMap.get(start);
-		MapNode goalNode = pointNodeMap.get(goal);
-		
-		// Credit: USCD pseudocode algorithm
-		// Dijkstra(S, G):
-		// Initialize: Priority queue (PQ), visited HashSet, 
-		// parent HashMap, and distances to infinity 
-		PriorityQueue<MapNode> pq = new PriorityQueue<MapNode>();
-		HashSet<MapNode> visited = new HashSet<MapNode>();
-		HashMap<MapNode, MapNode> parent = new HashMap<MapNode, MapNode>();
-		for (MapNode mapNode : pointNodeMap.values()) {
-			mapNode.setDistance(Double.MAX_VALUE);
+		return aStarSearch(start, goal, CostProfile.SHORTEST, nodeSearched);
+	}
+
+	/** Find the cheapest path from start to goal under a cost profile
+	 *  using A-Star search
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param profile The cost of each road segment, e.g. CostProfile.FASTEST
+	 * @return The list of intersections that form the cheapest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> aStarSearch(GeographicPoint start, 
+			GeographicPoint goal, CostProfile profile)
+	{
+		return aStarSearch(start, goal, profile, NO_HOOK);
+	}
+
+	/** Find the cheapest path from start to goal under a cost profile
+	 *  using A-Star search
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param profile The cost of each road segment, e.g. CostProfile.FASTEST
+	 * @param nodeSearched A hook for visualization.  See assignment instructions for how to use it.
+	 * @return The list of intersections that form the cheapest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> aStarSearch(GeographicPoint start, 
+			GeographicPoint goal, CostProfile profile, 
+			Consumer<GeographicPoint> nodeSearched)
+	{
+		return aStarSearch(start, goal, profile, roadClosures, nodeSearched);
+	}
+
+	/** Find the cheapest path from start to goal under a cost profile and
+	 *  a set of road closures, using A-Star search.  The closures apply to
+	 *  this query only, instead of those from setRoadClosures.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param profile The cost of each road segment, e.g. CostProfile.FASTEST
+	 * @param closures The closed and slowed roads, or null for none
+	 * @return The list of intersections that form the cheapest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> aStarSearch(GeographicPoint start, 
+			GeographicPoint goal, CostProfile profile, RoadClosures closures)
+	{
+		return aStarSearch(start, goal, profile, closures, NO_HOOK);
+	}
+
+	// Body of the aStarSearch methods
+	private List<GeographicPoint> aStarSearch(GeographicPoint start, 
+			GeographicPoint goal, CostProfile profile, RoadClosures closures, 
+			Consumer<GeographicPoint> nodeSearched)
+	{
+		// the straight-line distance is consistent, since no road between
+		// two points is shorter than the great-circle distance; scaled by
+		// the cheapest cost per km it bounds the cost under any profile.
+		// Closures only make roads costlier, so it stays a lower bound.
+		return cached("aStar", profile, closures, start, goal, nodeSearched, () -> {
+			final CSRGraph csr = snapshot();
+			final CostProfile.Weights w = weights(csr, profile, closures);
+			return search("aStar", csr, start, goal, nodeSearched, w.edges,
+					(v) -> csr.points[v].distance(goal) * w.perKm);
+		});
+	}
+
+	/**
+	 * Compute landmark tables for ALT searches (A* with landmarks and the
+	 * triangle inequality), or reuse the ones saved next to the map file
+	 * if they were computed for this same graph.  Newly computed tables are
+	 * saved as mapFile + ".landmarks".
+	 * 
+	 * @param mapFile The .map file this graph was loaded from, or null to
+	 *   compute the tables without saving them
+	 * @param count The number of landmarks to select; all the vertices
+	 *   are landmarks if there are fewer
+	 * @throws IOException if saved tables exist but cannot be read, or new
+	 *   tables cannot be saved
+	 * @throws IllegalArgumentException if count is less than 1
+	 */
+	public void prepareLandmarks(String mapFile, int count) throws IOException
+	{
+		if (count < 1) {
+			throw new IllegalArgumentException("prepareLandmarks: count must be at least 1");
+		}
+		CSRGraph csr = snapshot();
+		File file = mapFile == null ? null : new File(mapFile + ".landmarks");
+		LandmarkTable table = file == null ? null : LandmarkTable.load(csr, file);
+		if (table == null || table.size() != Math.min(count, csr.numVertices())) {
+			table = LandmarkTable.compute(csr, count);
+			if (file != null) {
+				table.save(file);
+			}
+		}
+		landmarks = table;
+	}
+
+	/** Find the path from start to goal using A-Star search in ALT mode,
+	 * guided by the landmark tables from prepareLandmarks.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> altSearch(GeographicPoint start, GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = NO_HOOK;
+        return altSearch(start, goal, temp);
+	}
+
+	/** Find the path from start to goal using A-Star search in ALT mode,
+	 * guided by the landmark tables from prepareLandmarks.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param nodeSearched A hook for visualization.  See assignment instructions for how to use it.
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 * @throws IllegalStateException if no landmark tables have been prepared
+	 *   for the current graph
+	 */
+	public List<GeographicPoint> altSearch(GeographicPoint start, 
+			GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
+	{
+		final CSRGraph csr = snapshot();
+		LandmarkTable table = landmarks;
+		if (table == null || table.snapshot() != csr) {
+			throw new IllegalStateException("altSearch: call prepareLandmarks first");
+		}
+		int goalId = csr.indexOf(goal);
+		if (goalId < 0) {
+			return null;
+		}
+		// Both bounds are consistent, so their maximum is too; the
+		// straight line still helps where the landmarks are poorly placed.
+		// Closures only lengthen paths, so the bounds still hold with them.
+		final Heuristic alt = table.towards(goalId);
+		double[] weights = weights(csr, CostProfile.SHORTEST, roadClosures).edges;
+		return search("alt", csr, start, goal, nodeSearched, weights, 
+				(v) -> Math.max(alt.estimate(v), csr.points[v].distance(goal)));
+	}
+
+	/** Find the path from start to goal using bidirectional Dijkstra:
+	 * one search forward from start and one backward from goal, stopping
+	 * when they meet on the shortest path.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start, GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = NO_HOOK;
+        return bidirectionalDijkstra(start, goal, temp);
+	}
+
+	/** Find the path from start to goal using bidirectional Dijkstra
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param nodeSearched A hook for visualization, called for the nodes
+	 *   settled by both the forward and the backward search.
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start, 
+			GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
+	{
+		return bidirectionalSearch(start, goal, CostProfile.SHORTEST, nodeSearched, false);
+	}
+
+	/** Find the cheapest path from start to goal under a cost profile
+	 *  using bidirectional Dijkstra
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param profile The cost of each road segment, e.g. CostProfile.FASTEST
+	 * @return The list of intersections that form the cheapest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start, 
+			GeographicPoint goal, CostProfile profile)
+	{
+		return bidirectionalSearch(start, goal, profile, NO_HOOK, false);
+	}
+
+	/** Find the path from start to goal using bidirectional A-Star search
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> bidirectionalAStarSearch(GeographicPoint start, GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = NO_HOOK;
+        return bidirectionalAStarSearch(start, goal, temp);
+	}
+
+	/** Find the path from start to goal using bidirectional A-Star search
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param nodeSearched A hook for visualization, called for the nodes
+	 *   settled by both the forward and the backward search.
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> bidirectionalAStarSearch(GeographicPoint start, 
+			GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
+	{
+		return bidirectionalSearch(start, goal, CostProfile.SHORTEST, nodeSearched, true);
+	}
+
+	/** Find the cheapest path from start to goal under a cost profile
+	 *  using bidirectional A-Star search
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param profile The cost of each road segment, e.g. CostProfile.FASTEST
+	 * @return The list of intersections that form the cheapest path from 
+	 *   start to goal (including both start and goal).
+	 */
+	public List<GeographicPoint> bidirectionalAStarSearch(GeographicPoint start, 
+			GeographicPoint goal, CostProfile profile)
+	{
+		return bidirectionalSearch(start, goal, profile, NO_HOOK, true);
+	}
+
+	// Look up the end points and hand over to BidirectionalSearch
+	private List<GeographicPoint> bidirectionalSearch(GeographicPoint start, 
+			GeographicPoint goal, CostProfile profile, 
+			Consumer<GeographicPoint> nodeSearched, boolean useHeuristic)
+	{
+		CSRGraph csr = snapshot();
+		int startId = csr.indexOf(start);
+		int goalId = csr.indexOf(goal);
+		if (startId < 0 || goalId < 0) {
+			return null;
+		}
+		return BidirectionalSearch.search(csr, weights(csr, profile, roadClosures), startId, goalId,
+				nodeSearched, useHeuristic, statsListener);
+	}
+
+	/**
+	 * Run the Contraction Hierarchies preprocessing for the current graph
+	 * so that contractionHierarchySearch can answer queries right away.
+	 * The preprocessing is redone after the graph is modified.
+	 */
+	public void prepareContractionHierarchy()
+	{
+		contractionHierarchy();
+	}
+
+	/** Find the path from start to goal using the Contraction Hierarchy,
+	 * running the preprocessing first if it has not been done yet.
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal), with every
+	 *   shortcut unpacked into the intersections it bypasses.
+	 */
+	public List<GeographicPoint> contractionHierarchySearch(GeographicPoint start,
+			GeographicPoint goal)
+	{
+		if (roadClosures != null) {
+			return bidirectionalSearch(start, goal, CostProfile.SHORTEST, NO_HOOK, true);
+		}
+		ContractionHierarchy ch = contractionHierarchy();
+		int startId = ch.snapshot().indexOf(start);
+		int goalId = ch.snapshot().indexOf(goal);
+		if (startId < 0 || goalId < 0) {
+			return null;
+		}
+		return ch.search(startId, goalId, statsListener);
+	}
+
+	// Get the hierarchy for the current snapshot, building it if needed
+	private ContractionHierarchy contractionHierarchy()
+	{
+		CSRGraph csr = snapshot();
+		ContractionHierarchy ch = hierarchy;
+		if (ch == null || ch.snapshot() != csr) {
+			synchronized (this) {
+				ch = hierarchy;
+				if (ch == null || ch.snapshot() != csr) {
+					ch = new ContractionHierarchy(csr);
+					hierarchy = ch;
+				}
+			}
+		}
+		return ch;
+	}
+
+	/** Find up to k alternative routes from start to goal: the k shortest
+	 * paths that do not visit any intersection twice (Yen's algorithm).
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param k The number of routes wanted
+	 * @return The routes, shortest first, each a list of intersections
+	 *   including start and goal; empty if there is no path
+	 */
+	public List<List<GeographicPoint>> kShortestPaths(GeographicPoint start,
+			GeographicPoint goal, int k)
+	{
+		return kShortestPaths(start, goal, k, CostProfile.SHORTEST);
+	}
+
+	/** Find up to k alternative routes from start to goal: the k cheapest
+	 * loopless paths under a cost profile (Yen's algorithm).
+	 * 
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param k The number of routes wanted
+	 * @param profile The cost of each road segment, e.g. CostProfile.FASTEST
+	 * @return The routes, cheapest first, each a list of intersections
+	 *   including start and goal; empty if there is no path
+	 */
+	public List<List<GeographicPoint>> kShortestPaths(GeographicPoint start,
+			GeographicPoint goal, int k, CostProfile profile)
+	{
+		CSRGraph csr = snapshot();
+		int startId = csr.indexOf(start);
+		int goalId = csr.indexOf(goal);
+		if (startId < 0 || goalId < 0) {
+			return new ArrayList<List<GeographicPoint>>();
+		}
+		return KShortestPaths.search(csr, weights(csr, profile, roadClosures).edges, startId, goalId,
+				k, statsListener);
+	}
+
+	/**
+	 * Find every intersection within a driving distance of start, and the
+	 * road segments on which that distance runs out.
+	 * 
+	 * @param start The location to start from
+	 * @param maxKm The largest driving distance, in km
+	 * @return The reachable area; empty if start is not in the graph
+	 */
+	public ReachableArea reachableWithin(GeographicPoint start, double maxKm)
+	{
+		return reachableWithin(start, maxKm, CostProfile.SHORTEST);
+	}
+
+	/**
+	 * Find every intersection within a driving time of start, using the
+	 * road speeds of CostProfile.FASTEST.
+	 * 
+	 * @param start The location to start from
+	 * @param maxMinutes The largest driving time, in minutes
+	 * @return The reachable area; empty if start is not in the graph
+	 */
+	public ReachableArea reachableWithinMinutes(GeographicPoint start, double maxMinutes)
+	{
+		return reachableWithin(start, maxMinutes, CostProfile.FASTEST);
+	}
+
+	/**
+	 * Find every intersection that can be reached from start for at most
+	 * a given cost under a cost profile.
+	 * 
+	 * @param start The location to start from
+	 * @param budget The largest cost allowed, in the units of profile
+	 * @param profile The cost of each road segment
+	 * @return The reachable area; empty if start is not in the graph
+	 */
+	public ReachableArea reachableWithin(GeographicPoint start, double budget,
+			CostProfile profile)
+	{
+		CSRGraph csr = snapshot();
+		return ReachableArea.compute(csr, weights(csr, profile, roadClosures).edges, start, budget,
+				statsListener);
+	}
+
+	/**
+	 * Compute the reachable area of many starting points, in parallel on
+	 * the common ForkJoinPool.
+	 * 
+	 * @param starts The locations to start from
+	 * @param budget The largest cost allowed, in the units of profile
+	 * @param profile The cost of each road segment
+	 * @return The reachable area of each start, in the same order
+	 */
+	public List<ReachableArea> reachableWithin(List<GeographicPoint> starts,
+			double budget, CostProfile profile)
+	{
+		CSRGraph csr = snapshot();
+		double[] weights = weights(csr, profile, roadClosures).edges;
+		Consumer<SearchStats> listener = statsListener;
+		return starts.parallelStream()
+				.map((start) -> ReachableArea.compute(csr, weights, start, budget, listener))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Compute the shortest path distance from every origin to every
+	 * destination.  One search runs per origin, in parallel on the
+	 * common ForkJoinPool, and stops once all destinations are settled.
+	 * 
+	 * @param origins The start points, one per row of the matrix
+	 * @param destinations The end points, one per column of the matrix
+	 * @return The matrix of distances in km
+	 */
+	public DistanceMatrix distanceMatrix(List<GeographicPoint> origins,
+			List<GeographicPoint> destinations)
+	{
+		return distanceMatrix(origins, destinations, false);
+	}
+
+	/**
+	 * Compute the shortest path distance, and optionally the path, from
+	 * every origin to every destination.
+	 * 
+	 * @param origins The start points, one per row of the matrix
+	 * @param destinations The end points, one per column of the matrix
+	 * @param withPaths Whether the matrix should also keep the paths
+	 * @return The matrix of distances in km, and paths if requested
+	 */
+	public DistanceMatrix distanceMatrix(List<GeographicPoint> origins,
+			List<GeographicPoint> destinations, boolean withPaths)
+	{
+		return distanceMatrix(origins, destinations, withPaths, CostProfile.SHORTEST);
+	}
+
+	/**
+	 * Compute the cost of the cheapest path under a cost profile, and
+	 * optionally the path, from every origin to every destination.
+	 * 
+	 * @param origins The start points, one per row of the matrix
+	 * @param destinations The end points, one per column of the matrix
+	 * @param withPaths Whether the matrix should also keep the paths
+	 * @param profile The cost of each road segment, e.g. CostProfile.FASTEST
+	 * @return The matrix of costs, and paths if requested
+	 */
+	public DistanceMatrix distanceMatrix(List<GeographicPoint> origins,
+			List<GeographicPoint> destinations, boolean withPaths, CostProfile profile)
+	{
+		CSRGraph csr = snapshot();
+		return DistanceMatrix.compute(csr, weights(csr, profile, roadClosures).edges, origins,
+				destinations, withPaths, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Compute the shortest path from start to every intersection.  The
+	 * search is a delta-stepping search that uses every core, through the
+	 * common ForkJoinPool.
+	 * 
+	 * @param start The location to start from
+	 * @return The tree of shortest paths; empty if start is not in the graph
+	 */
+	public ShortestPathTree shortestPathTree(GeographicPoint start)
+	{
+		return shortestPathTree(start, CostProfile.SHORTEST);
+	}
+
+	/**
+	 * Compute the cheapest path under a cost profile from start to every
+	 * intersection, with a parallel delta-stepping search.
+	 * 
+	 * @param start The location to start from
+	 * @param profile The cost of each road segment, e.g. CostProfile.FASTEST
+	 * @return The tree of cheapest paths; empty if start is not in the graph
+	 */
+	public ShortestPathTree shortestPathTree(GeographicPoint start, CostProfile profile)
+	{
+		if (start == null)
+			throw new NullPointerException("Cannot find routes from null node");
+		CSRGraph csr = snapshot();
+		int startId = csr.indexOf(start);
+		if (startId < 0) {
+			return new ShortestPathTree(csr, start, null, null);
+		}
+		double[] weights = weights(csr, profile, roadClosures).edges;
+		double[] distances = DeltaStepping.distances(csr, weights, startId, true, statsListener);
+		return new ShortestPathTree(csr, start, distances,
+				DeltaStepping.parentEdges(csr, weights, distances, startId));
+	}
+
+	/** Shared body of dijkstra and aStarSearch on the CSR snapshot
+	 * 
+	 * @param algorithm The name of the search, for its SearchStats
+	 * @param csr The snapshot to search
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param nodeSearched A hook for visualization
+	 * @param weights The cost of each edge
+	 * @param heuristic The A* estimate of the distance left to the goal,
+	 *   or null for Dijkstra
+	 * @return The list of intersections that form the shortest path from 
+	 *   start to goal (including both start and goal), or null if there is none.
+	 */
+	private List<GeographicPoint> search(String algorithm, CSRGraph csr, GeographicPoint start, 
+			GeographicPoint goal, Consumer<GeographicPoint> nodeSearched, 
+			double[] weights, Heuristic heuristic)
+	{
+		int startId = csr.indexOf(start);
+		int goalId = csr.indexOf(goal);
+		if (startId < 0 || goalId < 0) {
+			return null;
 		}
 		
-		// Enqueue {S, 0} onto the PQ
-		startNode.setDistance(0);
-		pq.add(startNode);
-		
-		// initialize visited counter
-		int visitedCounter = 0;
-		
-		// while PQ is not empty:
-		while(!pq.isEmpty()) {
-			// dequeue node curr from front of queue if(curr is not visited)
-			MapNode curr = pq.poll();
-			// increment visitedCounter
-			visitedCounter++;
+		// Credit: USCD pseudocode algorithm
+		// Initialize: take a search context, whose priority queue,
+		// settled flags, parents and distances all start out empty
+		Consumer<SearchStats> listener = statsListener;
+		long began = listener == null ? 0 : System.nanoTime();
+		SearchContext ctx = csr.acquireContext();
+		try {
+			IndexedMinHeap pq = ctx.heap;
 			
-			// print visiting
-			// System.out.println("aStar visiting" + curr);
+			// Enqueue {S, 0} onto the PQ
+			ctx.reachStart(startId);
+			pq.insertOrDecrease(startId, 0);
 			
-			if (!visited.contains(curr)) {
-				// add curr to visited set
-				visited.add(curr);
-
+			// initialize counters for SearchStats
+			int visitedCounter = 0;
+			int edgesRelaxed = 0;
+			List<GeographicPoint> path = null;
+			
+			// while PQ is not empty:
+			while(!pq.isEmpty()) {
+				// dequeue node curr from front of queue; every entry is
+				// current, since a shorter path lowers the key in place
+				int curr = pq.poll();
+				// increment visitedCounter
+				visitedCounter++;
+				ctx.settle(curr);
+	
 				// Hook for visualization.  See writeup.
-				nodeSearched.accept(curr.getLocation());
+				if (nodeSearched != NO_HOOK) {
+					nodeSearched.accept(csr.points[curr]);
+				}
 				
-				// If curr == G return parent map
-				if (curr == goalNode) {
-					// print visitedCounter
-					System.out.println("Nodes visited in search: " + visitedCounter);
-					
-					return reconstructPath(parent, startNode, goalNode);
+				// If curr == G return the path
+				if (curr == goalId) {
+					path = reconstructPath(csr, ctx, startId, goalId);
+					break;
 				}
-				// for each of curr's neighbors, n, not in visited set:
-				for (MapNode n : curr.getNeighbors()) {
-					if (!visited.contains(n)) {
-						// location of neighbor n
-						GeographicPoint nLocation = n.getLocation();
-						
-						// distance from curr to n
-						double currToN = 0.0;
+				// relax each of curr's outgoing edges to an unsettled node
+				double currDistance = ctx.distance(curr);
+				edgesRelaxed += csr.offsets[curr + 1] - csr.offsets[curr];
+				for (int e = csr.offsets[curr]; e < csr.offsets[curr + 1]; e++) {
+					int next = csr.targets[e];
+					if (!ctx.isSettled(next)) {
+						// distance from start to next through curr
+						double pathToNext = currDistance + weights[e];
 						
-						// edge weight from curr to neighbor n node
-						for (MapEdge edge : edges) {
-							if (edge.getStartPoint() == curr.getLocation() && edge.getEndPoint() == n.getLocation()) {
-								currToN = edge.getLength();
+						if (pathToNext < ctx.distance(next)) {
+							ctx.reach(next, pathToNext, curr, e);
+							// predicted distance from start to goal
+							double priority = pathToNext;
+							if (heuristic != null) {
+								priority += heuristic.estimate(next);
 							}
-						}
-						
-						// distance from start to n
-						double startToN = curr.getActualDistance() + currToN;
-						
-						// predicted distance from start to goal
-						double predictedDistance = startToN + nLocation.distance(goal);
-						
-						// if predicted distance from start to goal is less
-						// than distance from start to n
-						if (predictedDistance < n.getDistance()) {
-							// update distances
-							n.setDistance(predictedDistance);
-							n.setActualDistance(startToN);
-							
-							// update curr as n's parent in parent map
-							parent.put(n, curr);
-							
-							// enqueue {n, predictedDistance}
-							pq.add(n);
+							pq.insertOrDecrease(next, priority);
 						}
 					}
 				}
 			}
+	
+			// path is still null if there's no path
+			if (listener != null) {
+				SearchStats.report(listener, algorithm, began, visitedCounter,
+						edgesRelaxed, pq);
+			}
+			return path;
+		}
+		finally {
+			csr.releaseContext(ctx);
 		}
-
-		// If we get here then there's no path		
-		return null;
 	}
 
 	
 	
 	public static void main(String[] args)
 	{
+	    // print the number of nodes each search visits
+	    Consumer<SearchStats> printVisited = (stats) -> 
+	    		System.out.println("Nodes visited in search: " + stats.getNodesSettled());
+	    
 	    MapGraph simpleTestMap = new MapGraph();
 			GraphLoader.loadRoadMap("data/testdata/simpletest.map", simpleTestMap);
+			simpleTestMap.setSearchStatsListener(printVisited);
 			
 			GeographicPoint testStart = new GeographicPoint(1.0, 1.0);
 			GeographicPoint testEnd = new GeographicPoint(8.0, -1.0);
@@ -477,6 +1272,7 @@ public class MapGraph {
 			
 			MapGraph testMap = new MapGraph();
 			GraphLoader.loadRoadMap("data/maps/utc.map", testMap);
+			testMap.setSearchStatsListener(printVisited);
 			
 			// A very simple test using real data
 			testStart = new GeographicPoint(32.869423, -117.220917);
@@ -492,6 +1288,41 @@ public class MapGraph {
 			System.out.println("Test 3 using utc: Dijkstra should be 37 and AStar should be 10");
 			testroute = testMap.dijkstra(testStart,testEnd);
 			testroute2 = testMap.aStarSearch(testStart,testEnd);
+			
+			
+			// The bidirectional searches must find routes just as short
+			System.out.println("Test 4 using utc: bidirectional Dijkstra and AStar");
+			testroute = testMap.bidirectionalDijkstra(testStart,testEnd);
+			testroute2 = testMap.bidirectionalAStarSearch(testStart,testEnd);
+			
+			
+			// Free ferries put C and D at the same cost as A, each reachable
+			// from the other; the tree must still lead back to S from both
+			System.out.println("Test 5 with zero-cost ferries: shortest path tree should match Dijkstra");
+			CostProfile freeFerries = new CostProfile("freeFerries") {
+				@Override
+				public double cost(String roadType, double length) {
+					return roadType.equals("ferry") ? 0 : length;
+				}
+			};
+			MapGraph ferryMap = new MapGraph();
+			GeographicPoint s = new GeographicPoint(0, 0);
+			GeographicPoint a = new GeographicPoint(0, 0.01);
+			GeographicPoint c = new GeographicPoint(0.01, 0.01);
+			GeographicPoint d = new GeographicPoint(0.01, 0);
+			ferryMap.addVertex(s);
+			ferryMap.addVertex(a);
+			ferryMap.addVertex(c);
+			ferryMap.addVertex(d);
+			ferryMap.addEdge(s, a, "Main St", "residential", 1.1);
+			ferryMap.addEdge(d, c, "Ferry", "ferry", 1.1);
+			ferryMap.addEdge(c, d, "Ferry", "ferry", 1.1);
+			ferryMap.addEdge(a, c, "Ferry", "ferry", 1.1);
+			ShortestPathTree tree = ferryMap.shortestPathTree(s, freeFerries);
+			for (GeographicPoint goal : new GeographicPoint[] {c, d}) {
+				System.out.println(tree.getPath(goal).equals(ferryMap.dijkstra(s, goal, freeFerries))
+						? "Tree path matches" : "Tree path differs");
+			}
 	}
 	
-}
\ No newline at end of file
+}
\ No newline at end of file
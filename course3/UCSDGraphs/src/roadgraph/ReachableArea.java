@@ -0,0 +1,211 @@
+/**
+ * The part of a graph reachable within a budget
+ */
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * Every intersection that can be reached from an origin for at most a
+ * given cost (a service area, or isochrone for travel times), together
+ * with the boundary edges: the road segments that lead from a reachable
+ * intersection to an unreachable one, and how far along them the
+ * budget runs out.
+ *
+ * It is computed by a Dijkstra search from the origin that stops as
+ * soon as the smallest key in its queue exceeds the budget, in a pooled
+ * SearchContext, so the work is proportional to the size of the area
+ * rather than of the graph.
+ *
+ */
+public class ReachableArea
+{
+	private final GeographicPoint origin;
+	private final double budget;
+	private final List<GeographicPoint> reachable;
+	private final double[] costs;
+	private final List<BoundaryEdge> boundary;
+
+	// Create an area from computed results
+	private ReachableArea(GeographicPoint origin, double budget,
+			List<GeographicPoint> reachable, double[] costs, List<BoundaryEdge> boundary)
+	{
+		this.origin = origin;
+		this.budget = budget;
+		this.reachable = Collections.unmodifiableList(reachable);
+		this.costs = costs;
+		this.boundary = Collections.unmodifiableList(boundary);
+	}
+
+	/**
+	 * @return the location the area was computed from
+	 */
+	public GeographicPoint getOrigin()
+	{
+		return origin;
+	}
+
+	/**
+	 * @return the largest cost allowed, in the units of the cost profile
+	 */
+	public double getBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * @return the reachable intersections, in order of increasing cost;
+	 *   empty if the origin is not in the graph
+	 */
+	public List<GeographicPoint> getReachable()
+	{
+		return reachable;
+	}
+
+	/**
+	 * Get the cost of reaching one of the reachable intersections
+	 * @param i An index into getReachable()
+	 * @return the cost of the cheapest path from the origin to it
+	 */
+	public double getCost(int i)
+	{
+		return costs[i];
+	}
+
+	/**
+	 * @return the road segments on which the budget runs out
+	 */
+	public List<BoundaryEdge> getBoundary()
+	{
+		return boundary;
+	}
+
+	/**
+	 * Run the bounded search
+	 * @param csr The graph to search
+	 * @param weights The cost of each edge
+	 * @param origin The location to start from
+	 * @param budget The largest cost allowed
+	 * @param statsListener Receives the SearchStats of the search, or null
+	 * @return the reachable area
+	 */
+	static ReachableArea compute(CSRGraph csr, double[] weights, GeographicPoint origin,
+			double budget, Consumer<SearchStats> statsListener)
+	{
+		List<GeographicPoint> reachable = new ArrayList<GeographicPoint>();
+		List<BoundaryEdge> boundary = new ArrayList<BoundaryEdge>();
+		int startId = csr.indexOf(origin);
+		if (startId < 0 || budget < 0) {
+			return new ReachableArea(origin, budget, reachable, new double[0], boundary);
+		}
+
+		long began = statsListener == null ? 0 : System.nanoTime();
+		SearchContext ctx = csr.acquireContext();
+		try {
+			IntList settled = new IntList();
+			int edgesRelaxed = 0;
+			ctx.reachStart(startId);
+			ctx.heap.insertOrDecrease(startId, 0);
+			while (!ctx.heap.isEmpty() && ctx.heap.peekKey() <= budget) {
+				int curr = ctx.heap.poll();
+				ctx.settle(curr);
+				settled.add(curr);
+				double currDistance = ctx.distance(curr);
+				edgesRelaxed += csr.offsets[curr + 1] - csr.offsets[curr];
+				for (int e = csr.offsets[curr]; e < csr.offsets[curr + 1]; e++) {
+					int next = csr.targets[e];
+					double pathToNext = currDistance + weights[e];
+					if (!ctx.isSettled(next) && pathToNext < ctx.distance(next)) {
+						ctx.reach(next, pathToNext, curr, e);
+						ctx.heap.insertOrDecrease(next, pathToNext);
+					}
+				}
+			}
+
+			double[] costs = new double[settled.size()];
+			for (int i = 0; i < settled.size(); i++) {
+				int v = settled.get(i);
+				reachable.add(csr.points[v]);
+				costs[i] = ctx.distance(v);
+				for (int e = csr.offsets[v]; e < csr.offsets[v + 1]; e++) {
+					// closed roads cost infinity and are not part of the boundary
+					if (!ctx.isSettled(csr.targets[e])
+							&& weights[e] != Double.POSITIVE_INFINITY) {
+						double fraction = weights[e] == 0 ? 1
+								: Math.min(1, (budget - costs[i]) / weights[e]);
+						boundary.add(new BoundaryEdge(csr.points[v],
+								csr.points[csr.targets[e]], fraction));
+					}
+				}
+			}
+			if (statsListener != null) {
+				SearchStats.report(statsListener, "reachableWithin", began,
+						settled.size(), edgesRelaxed, ctx.heap);
+			}
+			return new ReachableArea(origin, budget, reachable, costs, boundary);
+		}
+		finally {
+			csr.releaseContext(ctx);
+		}
+	}
+
+	/**
+	 * A road segment from a reachable intersection to one that is not
+	 */
+	public static class BoundaryEdge
+	{
+		private final GeographicPoint from;
+		private final GeographicPoint to;
+		private final double fraction;
+
+		BoundaryEdge(GeographicPoint from, GeographicPoint to, double fraction)
+		{
+			this.from = from;
+			this.to = to;
+			this.fraction = fraction;
+		}
+
+		/**
+		 * @return the reachable end of the segment
+		 */
+		public GeographicPoint getFrom()
+		{
+			return from;
+		}
+
+		/**
+		 * @return the unreachable end of the segment
+		 */
+		public GeographicPoint getTo()
+		{
+			return to;
+		}
+
+		/**
+		 * @return how much of the segment, between 0 and 1, can be driven
+		 *   before the budget runs out
+		 */
+		public double getFraction()
+		{
+			return fraction;
+		}
+
+		/**
+		 * @return the point where the budget runs out, interpolated along
+		 *   the straight line between the two ends
+		 */
+		public GeographicPoint getCutoff()
+		{
+			return new GeographicPoint(from.getX() + (to.getX() - from.getX()) * fraction,
+					from.getY() + (to.getY() - from.getY()) * fraction);
+		}
+	}
+
+}
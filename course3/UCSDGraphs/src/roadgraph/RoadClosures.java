@@ -0,0 +1,272 @@
+/**
+ * Closed and slowed roads laid over a MapGraph
+ */
+package roadgraph;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import geography.GeographicPoint;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * An immutable set of road closures and slowdowns that the searches of a
+ * MapGraph honour without the graph itself changing.  Install one with
+ * MapGraph.setRoadClosures, which swaps it in atomically for all later
+ * queries, or pass one to a single query.
+ *
+ * Segments are named by their two end points, so one RoadClosures can
+ * be used with any graph.  For each graph snapshot it is resolved once
+ * into a bitset of closed edge ids and a sparse list of slowed edge ids
+ * with their factors; for each cost profile used with it, those are
+ * applied to a copy of the profile's edge weights (closed edges cost
+ * infinity).  The search loops therefore run exactly as without
+ * closures.  Slowdown factors are at least 1, so the A* and ALT lower
+ * bounds of the graph without closures remain valid.
+ *
+ */
+public final class RoadClosures
+{
+	/** Source of ids that tell RoadClosures apart in the route cache */
+	private static final AtomicLong NEXT_ID = new AtomicLong();
+
+	private final long id;
+
+	/** The factor of each changed segment; infinity for a closed one */
+	private final Map<Segment,Double> factors;
+
+	/** The ids and weights for the snapshot this was last used with */
+	private volatile Resolved resolved;
+
+	// Create from the factors collected by a Builder
+	private RoadClosures(Map<Segment,Double> factors)
+	{
+		id = NEXT_ID.incrementAndGet();
+		this.factors = Collections.unmodifiableMap(new HashMap<Segment,Double>(factors));
+	}
+
+	/**
+	 * @return a number that is different for every RoadClosures created
+	 */
+	public long getId()
+	{
+		return id;
+	}
+
+	/**
+	 * @return the number of closed or slowed segments
+	 */
+	public int size()
+	{
+		return factors.size();
+	}
+
+	/**
+	 * Get the bitset of closed edges of a snapshot
+	 * @param csr The snapshot
+	 * @return the closed edge ids
+	 */
+	BitSet closedEdges(CSRGraph csr)
+	{
+		return resolve(csr).closed;
+	}
+
+	/**
+	 * Get the edge weights of a cost profile with these closures applied
+	 * @param csr The snapshot
+	 * @param profile The cost profile
+	 * @return the weights, with closed edges costing infinity
+	 */
+	CostProfile.Weights weights(CSRGraph csr, CostProfile profile)
+	{
+		Resolved r = resolve(csr);
+		CostProfile.Weights w = r.weights.get(profile);
+		if (w == null) {
+			CostProfile.Weights base = csr.weights(profile);
+			double[] edges = base.edges.clone();
+			for (int e = r.closed.nextSetBit(0); e >= 0; e = r.closed.nextSetBit(e + 1)) {
+				edges[e] = Double.POSITIVE_INFINITY;
+			}
+			for (int i = 0; i < r.slowed.length; i++) {
+				edges[r.slowed[i]] *= r.slowFactors[i];
+			}
+			w = new CostProfile.Weights(edges, base.perKm);
+			CostProfile.Weights raced = r.weights.putIfAbsent(profile, w);
+			if (raced != null) {
+				w = raced;
+			}
+		}
+		return w;
+	}
+
+	// Look up the edge ids of the segments in csr, reusing the last result
+	// if it was for the same snapshot
+	private Resolved resolve(CSRGraph csr)
+	{
+		Resolved r = resolved;
+		if (r != null && r.csr == csr) {
+			return r;
+		}
+		BitSet closed = new BitSet(csr.numEdges());
+		IntList slowed = new IntList();
+		IntList slowedIndex = new IntList();
+		double[] allFactors = new double[factors.size()];
+		int i = 0;
+		for (Map.Entry<Segment,Double> entry : factors.entrySet()) {
+			allFactors[i] = entry.getValue();
+			int from = csr.indexOf(entry.getKey().from);
+			int to = csr.indexOf(entry.getKey().to);
+			if (from >= 0 && to >= 0) {
+				for (int e = csr.offsets[from]; e < csr.offsets[from + 1]; e++) {
+					if (csr.targets[e] != to) {
+						continue;
+					}
+					if (allFactors[i] == Double.POSITIVE_INFINITY) {
+						closed.set(e);
+					}
+					else {
+						slowed.add(e);
+						slowedIndex.add(i);
+					}
+				}
+			}
+			i++;
+		}
+		double[] slowFactors = new double[slowed.size()];
+		for (int j = 0; j < slowFactors.length; j++) {
+			slowFactors[j] = allFactors[slowedIndex.get(j)];
+		}
+		r = new Resolved(csr, closed, slowed.toArray(), slowFactors);
+		resolved = r;
+		return r;
+	}
+
+	/**
+	 * Collects closures and slowdowns for a new RoadClosures
+	 */
+	public static class Builder
+	{
+		private final Map<Segment,Double> factors = new HashMap<Segment,Double>();
+
+		/**
+		 * Start from no closures
+		 */
+		public Builder()
+		{
+		}
+
+		/**
+		 * Start from the closures of an existing RoadClosures
+		 * @param base The closures to copy
+		 */
+		public Builder(RoadClosures base)
+		{
+			factors.putAll(base.factors);
+		}
+
+		/**
+		 * Close the road segment from one intersection to another.  The
+		 * segment in the other direction stays open unless closed too.
+		 * @param from The intersection at the start of the segment
+		 * @param to The intersection at its end
+		 * @return this builder
+		 */
+		public Builder close(GeographicPoint from, GeographicPoint to)
+		{
+			factors.put(new Segment(from, to), Double.POSITIVE_INFINITY);
+			return this;
+		}
+
+		/**
+		 * Multiply the cost of the road segment from one intersection to
+		 * another, under every cost profile
+		 * @param from The intersection at the start of the segment
+		 * @param to The intersection at its end
+		 * @param factor How many times as costly the segment becomes
+		 * @return this builder
+		 * @throws IllegalArgumentException if factor is less than 1
+		 */
+		public Builder slowDown(GeographicPoint from, GeographicPoint to, double factor)
+		{
+			if (!(factor >= 1)) {
+				throw new IllegalArgumentException("slowDown: factor must be at least 1");
+			}
+			factors.put(new Segment(from, to), factor);
+			return this;
+		}
+
+		/**
+		 * Reopen a closed or slowed segment
+		 * @param from The intersection at the start of the segment
+		 * @param to The intersection at its end
+		 * @return this builder
+		 */
+		public Builder reopen(GeographicPoint from, GeographicPoint to)
+		{
+			factors.remove(new Segment(from, to));
+			return this;
+		}
+
+		/**
+		 * @return the closures collected so far
+		 */
+		public RoadClosures build()
+		{
+			return new RoadClosures(factors);
+		}
+	}
+
+	/** A directed road segment named by its end points */
+	private static final class Segment
+	{
+		final GeographicPoint from;
+		final GeographicPoint to;
+
+		Segment(GeographicPoint from, GeographicPoint to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Segment)) {
+				return false;
+			}
+			Segment other = (Segment)o;
+			return from.equals(other.from) && to.equals(other.to);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * from.hashCode() + to.hashCode();
+		}
+	}
+
+	/** The closures resolved against one snapshot */
+	private static final class Resolved
+	{
+		final CSRGraph csr;
+		final BitSet closed;
+		final int[] slowed;
+		final double[] slowFactors;
+		final ConcurrentHashMap<CostProfile,CostProfile.Weights> weights =
+				new ConcurrentHashMap<CostProfile,CostProfile.Weights>();
+
+		Resolved(CSRGraph csr, BitSet closed, int[] slowed, double[] slowFactors)
+		{
+			this.csr = csr;
+			this.closed = closed;
+			this.slowed = slowed;
+			this.slowFactors = slowFactors;
+		}
+	}
+
+}
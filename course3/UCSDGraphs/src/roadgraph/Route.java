@@ -0,0 +1,188 @@
+/**
+ * A path found by a search, kept as vertex ids
+ */
+package roadgraph;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * A path through the graph as the int ids of its intersections and
+ * road segments in a snapshot, plus its total cost.  Building one costs
+ * two small int arrays however long the path is.
+ *
+ * getPoints() is a read-only List view that looks the locations up as
+ * it is read, so nothing is copied; the searches that return a
+ * List<GeographicPoint> return this view.  getGeometry() expands the
+ * full shape of the roads, from the RoadSegment each edge was loaded
+ * with, only when it is asked for.
+ *
+ */
+public class Route
+{
+	private final CSRGraph csr;
+	private final int[] vertices;
+	private final int[] edges;
+	private final double cost;
+	private final List<GeographicPoint> points = new Points();
+
+	/**
+	 * @param csr The snapshot the ids belong to
+	 * @param vertices The ids of the intersections, from start to goal
+	 * @param edges The ids of the edges between them; one fewer
+	 * @param cost The total cost of the path
+	 */
+	Route(CSRGraph csr, int[] vertices, int[] edges, double cost)
+	{
+		this.csr = csr;
+		this.vertices = vertices;
+		this.edges = edges;
+		this.cost = cost;
+	}
+
+	/**
+	 * Build the route to goalId from the parents recorded by a search
+	 * @param csr The snapshot searched
+	 * @param ctx The context of the search
+	 * @param startId The starting vertex
+	 * @param goalId The goal vertex, which the search reached
+	 * @return the route from startId to goalId
+	 */
+	static Route fromParents(CSRGraph csr, SearchContext ctx, int startId, int goalId)
+	{
+		int hops = 0;
+		for (int v = goalId; v != startId; v = ctx.parent(v)) {
+			hops++;
+		}
+		int[] vertices = new int[hops + 1];
+		int[] edges = new int[hops];
+		int v = goalId;
+		for (int i = hops; i > 0; i--) {
+			vertices[i] = v;
+			edges[i - 1] = ctx.parentEdge(v);
+			v = ctx.parent(v);
+		}
+		vertices[0] = startId;
+		return new Route(csr, vertices, edges, ctx.distance(goalId));
+	}
+
+	/**
+	 * @return the total cost of the route, in the units of the search
+	 *   that found it (km, minutes, or hops for breadth first search)
+	 */
+	public double getCost()
+	{
+		return cost;
+	}
+
+	/**
+	 * @return the number of intersections on the route, including start
+	 *   and goal
+	 */
+	public int size()
+	{
+		return vertices.length;
+	}
+
+	/**
+	 * @param i An index from 0 to size() - 1
+	 * @return the i'th intersection of the route
+	 */
+	public GeographicPoint get(int i)
+	{
+		return csr.points[vertices[i]];
+	}
+
+	/**
+	 * @return the intersections of the route, from start to goal, as a
+	 *   read-only view
+	 */
+	public List<GeographicPoint> getPoints()
+	{
+		return points;
+	}
+
+	/**
+	 * Get the full shape of the route: every point of every road segment
+	 * on it, as loaded with the graph.  Segments loaded without geometry
+	 * are straight lines between their intersections.
+	 * @return the points from start to goal
+	 */
+	public List<GeographicPoint> getGeometry()
+	{
+		List<GeographicPoint> geometry = new ArrayList<GeographicPoint>();
+		geometry.add(get(0));
+		for (int i = 0; i < edges.length; i++) {
+			GeographicPoint from = get(i);
+			GeographicPoint to = get(i + 1);
+			RoadSegment segment = csr.edges[edges[i]].getSegment();
+			if (segment == null) {
+				geometry.add(to);
+			}
+			else {
+				List<GeographicPoint> shape = segment.getPoints(from, to);
+				geometry.addAll(shape.subList(1, shape.size()));
+			}
+		}
+		return geometry;
+	}
+
+	/**
+	 * @return the road segments of the route in order, or null for any
+	 *   loaded without geometry
+	 */
+	public List<RoadSegment> getSegments()
+	{
+		List<RoadSegment> segments = new ArrayList<RoadSegment>(edges.length);
+		for (int e : edges) {
+			segments.add(csr.edges[e].getSegment());
+		}
+		return segments;
+	}
+
+	/**
+	 * Get the route a list of intersections returned by a search is a
+	 * view of
+	 * @param path A path returned by a MapGraph search
+	 * @return the route, or null if path is not such a view
+	 */
+	static Route of(List<GeographicPoint> path)
+	{
+		return path instanceof Points ? ((Points)path).route() : null;
+	}
+
+	@Override
+	public String toString()
+	{
+		return points.toString() + " cost " + cost;
+	}
+
+	/** The intersections of the route as a List */
+	private final class Points extends AbstractList<GeographicPoint> implements RandomAccess
+	{
+		@Override
+		public GeographicPoint get(int i)
+		{
+			return csr.points[vertices[i]];
+		}
+
+		@Override
+		public int size()
+		{
+			return vertices.length;
+		}
+
+		Route route()
+		{
+			return Route.this;
+		}
+	}
+
+}
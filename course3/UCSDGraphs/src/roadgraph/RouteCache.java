@@ -0,0 +1,198 @@
+/**
+ * A cache of search results
+ */
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import geography.GeographicPoint;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * A bounded, thread-safe cache of routes keyed by start, goal, search
+ * algorithm, cost profile, road closures and graph version.  Profiles
+ * are told apart as objects, like the edge weights CSRGraph keeps for
+ * them, so two profiles that share a name never share routes.  MapGraph bumps its version
+ * whenever addVertex or addEdge changes the graph, so routes computed on
+ * an older graph are never returned; they are also dropped right away.
+ *
+ * When the cache is full the oldest entry is evicted.  A hit returns the
+ * stored list without running any search code, so MapGraph does not use
+ * the cache for searches given a visualization hook.  The paths the
+ * searches return are read-only views of a Route and are stored as they
+ * are, so MapGraph.routeOf still finds the Route, with the cost the
+ * search found, for a cached path; any other list is stored as an
+ * unmodifiable copy.
+ *
+ */
+public class RouteCache
+{
+	/** Stored for a query that has no path, since the map cannot hold null */
+	private static final List<GeographicPoint> NO_PATH =
+			Collections.unmodifiableList(new ArrayList<GeographicPoint>());
+
+	private final int capacity;
+	private final ConcurrentHashMap<Key,List<GeographicPoint>> routes;
+	private final ConcurrentLinkedQueue<Key> insertionOrder;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Create an empty cache
+	 * @param capacity The largest number of routes to keep
+	 * @throws IllegalArgumentException if capacity is not positive
+	 */
+	public RouteCache(int capacity)
+	{
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("RouteCache: capacity must be positive");
+		}
+		this.capacity = capacity;
+		routes = new ConcurrentHashMap<Key,List<GeographicPoint>>();
+		insertionOrder = new ConcurrentLinkedQueue<Key>();
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache
+	 */
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that had to run a search
+	 */
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of routes dropped to make room for newer ones
+	 */
+	public long getEvictions()
+	{
+		return evictions.get();
+	}
+
+	/**
+	 * @return the number of routes currently cached
+	 */
+	public int size()
+	{
+		return routes.size();
+	}
+
+	/**
+	 * Remove every cached route
+	 */
+	public void clear()
+	{
+		routes.clear();
+		insertionOrder.clear();
+	}
+
+	/**
+	 * Look up a route, running search to compute it on a miss
+	 * @param start The starting location
+	 * @param goal The goal location
+	 * @param algorithm The name of the search algorithm
+	 * @param profile The cost profile
+	 * @param closures The id of the road closures, or 0 for none
+	 * @param version The version of the graph the route is for
+	 * @param search Computes the route on a miss; may return null for no path
+	 * @return the route, or null if there is no path
+	 */
+	List<GeographicPoint> get(GeographicPoint start, GeographicPoint goal,
+			String algorithm, CostProfile profile, long closures, long version,
+			Supplier<List<GeographicPoint>> search)
+	{
+		Key key = new Key(start, goal, algorithm, profile, closures, version);
+		List<GeographicPoint> route = routes.get(key);
+		if (route != null) {
+			hits.incrementAndGet();
+			return route == NO_PATH ? null : route;
+		}
+
+		misses.incrementAndGet();
+		List<GeographicPoint> path = search.get();
+		if (path == null) {
+			route = NO_PATH;
+		}
+		else if (Route.of(path) != null) {
+			route = path;
+		}
+		else {
+			route = Collections.unmodifiableList(new ArrayList<GeographicPoint>(path));
+		}
+		if (routes.putIfAbsent(key, route) == null) {
+			insertionOrder.add(key);
+			while (routes.size() > capacity) {
+				Key oldest = insertionOrder.poll();
+				if (oldest == null) {
+					break;
+				}
+				if (routes.remove(oldest) != null) {
+					evictions.incrementAndGet();
+				}
+			}
+		}
+		return path;
+	}
+
+	/** The identity of a query */
+	private static final class Key
+	{
+		private final GeographicPoint start;
+		private final GeographicPoint goal;
+		private final String algorithm;
+		private final CostProfile profile;
+		private final long closures;
+		private final long version;
+
+		Key(GeographicPoint start, GeographicPoint goal, String algorithm,
+				CostProfile profile, long closures, long version)
+		{
+			this.start = start;
+			this.goal = goal;
+			this.algorithm = algorithm;
+			this.profile = profile;
+			this.closures = closures;
+			this.version = version;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key)o;
+			return version == other.version && closures == other.closures
+					&& profile == other.profile && start.equals(other.start)
+					&& goal.equals(other.goal) && algorithm.equals(other.algorithm);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = start.hashCode();
+			hash = 31 * hash + goal.hashCode();
+			hash = 31 * hash + algorithm.hashCode();
+			hash = 31 * hash + System.identityHashCode(profile);
+			hash = 31 * hash + (int)(closures ^ (closures >>> 32));
+			return 31 * hash + (int)(version ^ (version >>> 32));
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package roadgraph;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiFunction;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/** A class for timing the search algorithms of MapGraph
+ *
+ * Every .map file in data/maps is loaded and each search is run on the
+ * same fixed, randomly chosen start/goal pairs, each goal reachable
+ * from its start.  After a warm-up pass
+ * that lets the JIT compile the searches, each query is timed on its
+ * own, and the report gives the throughput, the latency percentiles and
+ * the bytes allocated per query (measured with the HotSpot
+ * ThreadMXBean, so it reads "n/a" on JVMs without it).  The route cache
+ * is left off so that every query is a real search.
+ *
+ * Usage: java roadgraph.SearchBenchmarking [queries] [seed]
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class SearchBenchmarking {
+
+	/** The maps to run on */
+	private static final String MAP_DIR = "data/maps";
+
+	public static void main(String[] args) {
+
+		// The number of start/goal pairs per map
+		int queries = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+
+		// Fixed so that runs can be compared with each other
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+		// Passes over all pairs before timing starts
+		int warmups = 3;
+
+		List<String> names = new ArrayList<String>();
+		List<BiFunction<MapGraph,GeographicPoint[],Object>> searches =
+				new ArrayList<BiFunction<MapGraph,GeographicPoint[],Object>>();
+		names.add("bfs");
+		searches.add((g, q) -> g.bfs(q[0], q[1]));
+		names.add("dijkstra");
+		searches.add((g, q) -> g.dijkstra(q[0], q[1]));
+		names.add("aStar");
+		searches.add((g, q) -> g.aStarSearch(q[0], q[1]));
+
+		File[] maps = new File(MAP_DIR).listFiles((dir, name) -> name.endsWith(".map"));
+		if (maps == null) {
+			System.out.println("No maps found in " + MAP_DIR);
+			return;
+		}
+		Arrays.sort(maps);
+
+		// print headers
+		System.out.println("Map\t\t\tSearch\t\tQueries/s\tp50(us)\tp90(us)\tp99(us)\tmax(us)\tBytes/query");
+
+		for (File map : maps) {
+			MapGraph graph = new MapGraph();
+			GraphLoader.loadRoadMap(map.getPath(), graph);
+			GeographicPoint[][] pairs = pickPairs(graph, queries, seed);
+			if (pairs.length == 0) {
+				continue;
+			}
+
+			for (int s = 0; s < searches.size(); s++) {
+				BiFunction<MapGraph,GeographicPoint[],Object> search = searches.get(s);
+				for (int w = 0; w < warmups; w++) {
+					for (GeographicPoint[] pair : pairs) {
+						search.apply(graph, pair);
+					}
+				}
+
+				long[] latencies = new long[pairs.length];
+				long allocatedBefore = allocatedBytes();
+				long startTime = System.nanoTime();
+				for (int i = 0; i < pairs.length; i++) {
+					long queryStart = System.nanoTime();
+					search.apply(graph, pairs[i]);
+					latencies[i] = System.nanoTime() - queryStart;
+				}
+				long endTime = System.nanoTime();
+				long allocatedAfter = allocatedBytes();
+
+				Arrays.sort(latencies);
+				double throughput = pairs.length / ((endTime - startTime) / 1e9);
+				String bytes = allocatedBefore < 0 ? "n/a"
+						: String.valueOf((allocatedAfter - allocatedBefore) / pairs.length);
+				System.out.println(String.format("%-20s\t%-10s\t%.0f\t\t%.1f\t%.1f\t%.1f\t%.1f\t%s",
+						map.getName(), names.get(s), throughput,
+						percentile(latencies, 50), percentile(latencies, 90),
+						percentile(latencies, 99), latencies[latencies.length - 1] / 1e3,
+						bytes));
+			}
+		}
+	}
+
+	/** Pick random start/goal pairs of distinct vertices, each goal
+	 * reachable from its start, so that no timed query prints "No path
+	 * found" or finishes early
+	 *
+	 * @param graph The graph to pick from
+	 * @param count The number of pairs
+	 * @param seed The seed of the random choices
+	 * @return The pairs; fewer if few vertices can reach another, and
+	 *   none if the graph has fewer than two vertices
+	 */
+	private static GeographicPoint[][] pickPairs(MapGraph graph, int count, long seed) {
+		// sort the vertices so the pairs do not depend on HashSet order
+		List<GeographicPoint> vertices = new ArrayList<GeographicPoint>(graph.getVertices());
+		vertices.sort((a, b) -> a.getX() != b.getX() ? Double.compare(a.getX(), b.getX())
+				: Double.compare(a.getY(), b.getY()));
+		if (vertices.size() < 2) {
+			return new GeographicPoint[0][];
+		}
+		Random random = new Random(seed);
+		GeographicPoint[][] pairs = new GeographicPoint[count][];
+		int found = 0;
+		// give up on a start after this many goals it cannot reach, and
+		// on the map after this many starts
+		int goalTries = 1000;
+		int startTries = 100 * count;
+		while (found < count && startTries-- > 0) {
+			GeographicPoint start = vertices.get(random.nextInt(vertices.size()));
+			HopDistances hops = graph.hopDistances(start);
+			if (hops.getReachedCount() < 2) {
+				continue;
+			}
+			for (int t = 0; t < goalTries; t++) {
+				GeographicPoint goal = vertices.get(random.nextInt(vertices.size()));
+				if (hops.getHops(goal) > 0) {
+					pairs[found++] = new GeographicPoint[] { start, goal };
+					break;
+				}
+			}
+		}
+		return Arrays.copyOf(pairs, found);
+	}
+
+	/** Get a percentile of sorted latencies
+	 *
+	 * @param sorted The latencies in nanoseconds, in increasing order
+	 * @param p The percentile, 0 to 100
+	 * @return The latency in microseconds
+	 */
+	private static double percentile(long[] sorted, double p) {
+		int index = (int)Math.ceil(p / 100 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e3;
+	}
+
+	/** Get the bytes allocated so far by the current thread
+	 *
+	 * @return The number of bytes, or -1 if the JVM cannot measure it
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean)bean;
+			if (hotspot.isThreadAllocatedMemorySupported()) {
+				return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+		return -1;
+	}
+
+}
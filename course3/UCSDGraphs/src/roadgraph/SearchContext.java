@@ -0,0 +1,167 @@
+/**
+ * Per-query search state
+ */
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * The mutable state of one search over a CSRGraph: tentative distances,
+ * parents, settled flags and the priority queue.  Keeping this out of
+ * MapNode lets any number of searches run on the same graph at once,
+ * each with its own context.
+ *
+ * Instead of resetting every vertex before a query, each entry carries
+ * the epoch it was written in.  begin() starts a new epoch, and entries
+ * from earlier epochs read as unreached, so starting a query costs
+ * O(1) rather than O(V).
+ *
+ * Contexts are pooled by the snapshot they belong to; see
+ * CSRGraph.acquireContext and CSRGraph.releaseContext.
+ *
+ */
+final class SearchContext
+{
+	/** The priority queue for this search */
+	final IndexedMinHeap heap;
+
+
+	private final double[] distance;
+	private final int[] parent;
+	private final int[] parentEdge;
+
+	/** The epoch in which each vertex was last reached */
+	private final int[] reachedIn;
+
+	/** The epoch in which each vertex was last settled */
+	private final int[] settledIn;
+
+	private int epoch;
+
+	/** Scratch space for breadth first search, made on first use */
+	private BreadthFirstSearch.Scratch bfs;
+
+	/**
+	 * Create a context for searching a graph with n vertices
+	 * @param n The number of vertices in the graph
+	 */
+	SearchContext(int n)
+	{
+		heap = new IndexedMinHeap(n);
+		distance = new double[n];
+		parent = new int[n];
+		parentEdge = new int[n];
+		reachedIn = new int[n];
+		settledIn = new int[n];
+		epoch = 0;
+	}
+
+	/**
+	 * Start a new query: forget every distance, parent and settled flag
+	 * from the previous one.
+	 */
+	void begin()
+	{
+		heap.clear();
+		epoch++;
+		if (epoch == Integer.MAX_VALUE) {
+			// Stamps are about to wrap around, so clear them for real
+			Arrays.fill(reachedIn, 0);
+			Arrays.fill(settledIn, 0);
+			epoch = 1;
+		}
+	}
+
+	/**
+	 * @param v A vertex id
+	 * @return true if v has been reached in this query
+	 */
+	boolean isReached(int v)
+	{
+		return reachedIn[v] == epoch;
+	}
+
+	/**
+	 * @param v A vertex id
+	 * @return the tentative distance to v, or infinity if it has not
+	 *   been reached in this query
+	 */
+	double distance(int v)
+	{
+		return reachedIn[v] == epoch ? distance[v] : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @param v A vertex id that has been reached in this query
+	 * @return the vertex v was reached from, or v itself for the start
+	 */
+	int parent(int v)
+	{
+		return parent[v];
+	}
+
+	/**
+	 * @param v A vertex id that has been reached in this query
+	 * @return the CSR edge v was reached along, or -1 for the start
+	 */
+	int parentEdge(int v)
+	{
+		return parentEdge[v];
+	}
+
+	/**
+	 * Record that v was reached at the given distance
+	 * @param v The vertex reached
+	 * @param dist The distance to v
+	 * @param from The vertex v was reached from
+	 * @param edge The CSR edge v was reached along
+	 */
+	void reach(int v, double dist, int from, int edge)
+	{
+		reachedIn[v] = epoch;
+		distance[v] = dist;
+		parent[v] = from;
+		parentEdge[v] = edge;
+	}
+
+	/**
+	 * Record the start vertex of a search
+	 * @param v The start vertex
+	 */
+	void reachStart(int v)
+	{
+		reach(v, 0, v, -1);
+	}
+
+	/**
+	 * @param v A vertex id
+	 * @return true if v has been settled in this query
+	 */
+	boolean isSettled(int v)
+	{
+		return settledIn[v] == epoch;
+	}
+
+	/**
+	 * Mark v as settled in this query
+	 * @param v The vertex settled
+	 */
+	void settle(int v)
+	{
+		settledIn[v] = epoch;
+	}
+
+	/**
+	 * @return the scratch space for a breadth first search in this context
+	 */
+	BreadthFirstSearch.Scratch bfsScratch()
+	{
+		if (bfs == null) {
+			bfs = new BreadthFirstSearch.Scratch(distance.length);
+		}
+		return bfs;
+	}
+
+}
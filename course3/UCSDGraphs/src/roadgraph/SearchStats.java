@@ -0,0 +1,159 @@
+/**
+ * Counters describing one search
+ */
+package roadgraph;
+
+import java.util.function.Consumer;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * What one route search did: how many vertices it settled, how many
+ * edges it looked at, how its priority queue was used and how long it
+ * took.  MapGraph hands one of these to its stats listener after every
+ * search it runs (see MapGraph.setSearchStatsListener); when there is
+ * no listener the searches only keep a few int counters they need
+ * anyway and never read the clock.
+ *
+ * The heaps used here lower keys in place rather than inserting
+ * duplicates, so stalePops is 0 for all of the current searches.  For
+ * breadth first search the "heap" is the FIFO queue.
+ *
+ */
+public final class SearchStats
+{
+	private final String algorithm;
+	private final int nodesSettled;
+	private final int edgesRelaxed;
+	private final int heapPushes;
+	private final int heapPops;
+	private final int stalePops;
+	private final int peakFrontier;
+	private final long wallTimeNanos;
+
+	/**
+	 * Create the stats of a finished search
+	 * @param algorithm The name of the search algorithm
+	 * @param nodesSettled The number of vertices whose distance became final
+	 * @param edgesRelaxed The number of edges looked at from settled vertices
+	 * @param heapPushes The number of vertices added to the frontier
+	 * @param heapPops The number of entries removed from the frontier
+	 * @param stalePops The number of removed entries that were out of date
+	 * @param peakFrontier The largest size of the frontier
+	 * @param wallTimeNanos The elapsed time of the search
+	 */
+	SearchStats(String algorithm, int nodesSettled, int edgesRelaxed,
+			int heapPushes, int heapPops, int stalePops, int peakFrontier,
+			long wallTimeNanos)
+	{
+		this.algorithm = algorithm;
+		this.nodesSettled = nodesSettled;
+		this.edgesRelaxed = edgesRelaxed;
+		this.heapPushes = heapPushes;
+		this.heapPops = heapPops;
+		this.stalePops = stalePops;
+		this.peakFrontier = peakFrontier;
+		this.wallTimeNanos = wallTimeNanos;
+	}
+
+	/**
+	 * Report a search that kept its frontier in the given heaps (one, or
+	 * two for the bidirectional searches) to listener
+	 * @param listener Where to send the stats
+	 * @param algorithm The name of the search algorithm
+	 * @param began The System.nanoTime() when the search started
+	 * @param nodesSettled The number of vertices settled
+	 * @param edgesRelaxed The number of edges looked at
+	 * @param heaps The heaps of the search, before they are cleared
+	 */
+	static void report(Consumer<SearchStats> listener, String algorithm, long began,
+			int nodesSettled, int edgesRelaxed, IndexedMinHeap... heaps)
+	{
+		long elapsed = System.nanoTime() - began;
+		int pushes = 0;
+		int pops = 0;
+		int peak = 0;
+		for (IndexedMinHeap heap : heaps) {
+			pushes += heap.pushes();
+			pops += heap.pushes() - heap.size();
+			peak += heap.peakSize();
+		}
+		listener.accept(new SearchStats(algorithm, nodesSettled, edgesRelaxed,
+				pushes, pops, 0, peak, elapsed));
+	}
+
+	/**
+	 * @return the name of the search algorithm, e.g. "dijkstra"
+	 */
+	public String getAlgorithm()
+	{
+		return algorithm;
+	}
+
+	/**
+	 * @return the number of vertices whose distance became final
+	 */
+	public int getNodesSettled()
+	{
+		return nodesSettled;
+	}
+
+	/**
+	 * @return the number of edges looked at from settled vertices
+	 */
+	public int getEdgesRelaxed()
+	{
+		return edgesRelaxed;
+	}
+
+	/**
+	 * @return the number of vertices added to the frontier
+	 */
+	public int getHeapPushes()
+	{
+		return heapPushes;
+	}
+
+	/**
+	 * @return the number of entries removed from the frontier
+	 */
+	public int getHeapPops()
+	{
+		return heapPops;
+	}
+
+	/**
+	 * @return the number of removed entries that were out of date
+	 */
+	public int getStalePops()
+	{
+		return stalePops;
+	}
+
+	/**
+	 * @return the largest size of the frontier (the sum of both sides'
+	 *   largest sizes for bidirectional searches)
+	 */
+	public int getPeakFrontier()
+	{
+		return peakFrontier;
+	}
+
+	/**
+	 * @return the elapsed time of the search in nanoseconds
+	 */
+	public long getWallTimeNanos()
+	{
+		return wallTimeNanos;
+	}
+
+	@Override
+	public String toString()
+	{
+		return algorithm + ": settled=" + nodesSettled + " relaxed=" + edgesRelaxed
+				+ " pushes=" + heapPushes + " pops=" + heapPops
+				+ " stale=" + stalePops + " peak=" + peakFrontier
+				+ " time=" + wallTimeNanos / 1000 + "us";
+	}
+
+}
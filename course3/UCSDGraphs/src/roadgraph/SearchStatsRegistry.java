@@ -0,0 +1,138 @@
+/**
+ * Totals of search stats per algorithm
+ */
+package roadgraph;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * Adds up the SearchStats of many searches, per algorithm, so that the
+ * algorithms can be compared under load.  Pass a registry to
+ * MapGraph.setSearchStatsListener; it is safe to share between threads
+ * and graphs.  export() writes the totals as CSV.
+ *
+ */
+public class SearchStatsRegistry implements Consumer<SearchStats>
+{
+	private final ConcurrentHashMap<String,Totals> totals =
+			new ConcurrentHashMap<String,Totals>();
+
+	/**
+	 * Add the stats of one search to the totals of its algorithm
+	 * @param stats The stats of the search
+	 */
+	@Override
+	public void accept(SearchStats stats)
+	{
+		Totals t = totals.get(stats.getAlgorithm());
+		if (t == null) {
+			totals.putIfAbsent(stats.getAlgorithm(), new Totals());
+			t = totals.get(stats.getAlgorithm());
+		}
+		t.add(stats);
+	}
+
+	/**
+	 * @param algorithm The name of a search algorithm
+	 * @return the number of searches recorded for it
+	 */
+	public long getQueries(String algorithm)
+	{
+		Totals t = totals.get(algorithm);
+		return t == null ? 0 : t.queries.sum();
+	}
+
+	/**
+	 * @param algorithm The name of a search algorithm
+	 * @return the mean number of vertices it settled per search, or 0 if
+	 *   none were recorded
+	 */
+	public double getMeanNodesSettled(String algorithm)
+	{
+		Totals t = totals.get(algorithm);
+		long queries = t == null ? 0 : t.queries.sum();
+		return queries == 0 ? 0 : (double)t.nodesSettled.sum() / queries;
+	}
+
+	/**
+	 * @param algorithm The name of a search algorithm
+	 * @return the mean time per search in nanoseconds, or 0 if none were
+	 *   recorded
+	 */
+	public double getMeanWallTimeNanos(String algorithm)
+	{
+		Totals t = totals.get(algorithm);
+		long queries = t == null ? 0 : t.queries.sum();
+		return queries == 0 ? 0 : (double)t.wallTimeNanos.sum() / queries;
+	}
+
+	/**
+	 * Forget everything recorded so far
+	 */
+	public void clear()
+	{
+		totals.clear();
+	}
+
+	/**
+	 * Export the totals as CSV, one line per algorithm after a header
+	 * line, sorted by algorithm name.  Counts are totals over all
+	 * searches; the peak and max time columns are maxima.
+	 * @return the CSV text
+	 */
+	public String export()
+	{
+		StringBuilder out = new StringBuilder();
+		out.append("algorithm,queries,nodesSettled,edgesRelaxed,heapPushes,heapPops,"
+				+ "stalePops,maxPeakFrontier,totalTimeNanos,maxTimeNanos\n");
+		for (Map.Entry<String,Totals> entry : new TreeMap<String,Totals>(totals).entrySet()) {
+			Totals t = entry.getValue();
+			out.append(entry.getKey()).append(',')
+					.append(t.queries.sum()).append(',')
+					.append(t.nodesSettled.sum()).append(',')
+					.append(t.edgesRelaxed.sum()).append(',')
+					.append(t.heapPushes.sum()).append(',')
+					.append(t.heapPops.sum()).append(',')
+					.append(t.stalePops.sum()).append(',')
+					.append(t.peakFrontier.get()).append(',')
+					.append(t.wallTimeNanos.sum()).append(',')
+					.append(t.maxWallTimeNanos.get()).append('\n');
+		}
+		return out.toString();
+	}
+
+	/** The running totals of one algorithm */
+	private static final class Totals
+	{
+		final LongAdder queries = new LongAdder();
+		final LongAdder nodesSettled = new LongAdder();
+		final LongAdder edgesRelaxed = new LongAdder();
+		final LongAdder heapPushes = new LongAdder();
+		final LongAdder heapPops = new LongAdder();
+		final LongAdder stalePops = new LongAdder();
+		final LongAdder wallTimeNanos = new LongAdder();
+		final LongAccumulator peakFrontier = new LongAccumulator(Math::max, 0);
+		final LongAccumulator maxWallTimeNanos = new LongAccumulator(Math::max, 0);
+
+		void add(SearchStats stats)
+		{
+			queries.increment();
+			nodesSettled.add(stats.getNodesSettled());
+			edgesRelaxed.add(stats.getEdgesRelaxed());
+			heapPushes.add(stats.getHeapPushes());
+			heapPops.add(stats.getHeapPops());
+			stalePops.add(stats.getStalePops());
+			wallTimeNanos.add(stats.getWallTimeNanos());
+			peakFrontier.accumulate(stats.getPeakFrontier());
+			maxWallTimeNanos.accumulate(stats.getWallTimeNanos());
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Shortest paths from one intersection to all others
+ */
+package roadgraph;
+
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * The cheapest path from a source to every intersection under a cost
+ * profile, as a tree: each reachable intersection knows its cost and the
+ * intersection before it on its path.  See MapGraph.shortestPathTree.
+ *
+ */
+public class ShortestPathTree
+{
+	private final CSRGraph csr;
+	private final GeographicPoint source;
+	private final double[] distances;
+	private final int[] parentEdges;
+	private final int reached;
+
+	/**
+	 * @param csr The snapshot searched
+	 * @param source The location searched from
+	 * @param distances The cost of reaching each vertex of csr, or null if
+	 *   source is not in the graph
+	 * @param parentEdges The edge into each vertex on its path
+	 */
+	ShortestPathTree(CSRGraph csr, GeographicPoint source, double[] distances,
+			int[] parentEdges)
+	{
+		this.csr = csr;
+		this.source = source;
+		this.distances = distances;
+		this.parentEdges = parentEdges;
+		int count = 0;
+		if (distances != null) {
+			for (double d : distances) {
+				if (d != Double.POSITIVE_INFINITY) {
+					count++;
+				}
+			}
+		}
+		reached = count;
+	}
+
+	/**
+	 * @return the location the tree is rooted at
+	 */
+	public GeographicPoint getSource()
+	{
+		return source;
+	}
+
+	/**
+	 * @return the number of intersections that can be reached, including
+	 *   the source itself
+	 */
+	public int getReachedCount()
+	{
+		return reached;
+	}
+
+	/**
+	 * Get the cost of the cheapest path to an intersection
+	 * @param location An intersection
+	 * @return the cost, or infinity if it cannot be reached or is not in
+	 *   the graph
+	 */
+	public double getDistance(GeographicPoint location)
+	{
+		int v = distances == null ? -1 : csr.indexOf(location);
+		return v < 0 ? Double.POSITIVE_INFINITY : distances[v];
+	}
+
+	/**
+	 * Get the intersection before another on its cheapest path
+	 * @param location An intersection
+	 * @return the previous intersection, or null for the source and for
+	 *   intersections that cannot be reached
+	 */
+	public GeographicPoint getParent(GeographicPoint location)
+	{
+		int v = distances == null ? -1 : csr.indexOf(location);
+		return v < 0 || parentEdges[v] < 0 ? null : csr.points[csr.sources[parentEdges[v]]];
+	}
+
+	/**
+	 * Get the cheapest path to an intersection
+	 * @param location An intersection
+	 * @return The list of intersections on the path from the source to
+	 *   location (including both), or null if it cannot be reached
+	 */
+	public List<GeographicPoint> getPath(GeographicPoint location)
+	{
+		Route route = getRoute(location);
+		return route == null ? null : route.getPoints();
+	}
+
+	/**
+	 * Get the cheapest path to an intersection as a Route
+	 * @param location An intersection
+	 * @return The route from the source to location, or null if it
+	 *   cannot be reached
+	 */
+	public Route getRoute(GeographicPoint location)
+	{
+		int v = distances == null ? -1 : csr.indexOf(location);
+		if (v < 0 || distances[v] == Double.POSITIVE_INFINITY) {
+			return null;
+		}
+		int hops = 0;
+		for (int u = v; parentEdges[u] >= 0; u = csr.sources[parentEdges[u]]) {
+			// a path visits each vertex at most once
+			if (++hops >= csr.numVertices()) {
+				throw new IllegalStateException("The parents of the tree form a cycle");
+			}
+		}
+		int[] vertices = new int[hops + 1];
+		int[] edges = new int[hops];
+		int u = v;
+		for (int i = hops; i > 0; i--) {
+			vertices[i] = u;
+			edges[i - 1] = parentEdges[u];
+			u = csr.sources[parentEdges[u]];
+		}
+		vertices[0] = u;
+		return new Route(csr, vertices, edges, distances[v]);
+	}
+
+}
@@ -0,0 +1,292 @@
+/**
+ * A k-d tree over the vertices of a CSRGraph
+ */
+package roadgraph;
+
+import java.util.Arrays;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * A 2-d tree for snapping arbitrary coordinates, such as a click on the
+ * map or a GPS fix, to the intersections of the graph.
+ *
+ * Points are projected onto a plane with the equirectangular projection
+ * around the mean latitude of the graph (x = lon * cos(meanLat), y = lat),
+ * which preserves the order of distances closely over the extent of a
+ * city map.  The tree is stored implicitly in one array: the median of
+ * each range [lo, hi) sits at its middle and splits the range on x at
+ * even depths and on y at odd ones.
+ *
+ */
+final class SpatialIndex
+{
+	private final CSRGraph csr;
+
+	/** Vertex ids in tree order */
+	private final int[] tree;
+
+	/** Projected coordinates, indexed by vertex id */
+	private final double[] x;
+	private final double[] y;
+
+	/** cos(mean latitude), used to project longitudes */
+	private final double lonScale;
+
+	/**
+	 * Build the tree over all vertices of csr
+	 * @param csr The graph to index
+	 */
+	SpatialIndex(CSRGraph csr)
+	{
+		this.csr = csr;
+		int n = csr.numVertices();
+		double meanLat = 0;
+		for (int v = 0; v < n; v++) {
+			meanLat += csr.points[v].getX();
+		}
+		meanLat = n == 0 ? 0 : meanLat / n;
+		lonScale = Math.cos(Math.toRadians(meanLat));
+
+		x = new double[n];
+		y = new double[n];
+		tree = new int[n];
+		for (int v = 0; v < n; v++) {
+			x[v] = csr.points[v].getY() * lonScale;
+			y[v] = csr.points[v].getX();
+			tree[v] = v;
+		}
+		build(0, n, 0);
+	}
+
+	/**
+	 * @return the snapshot this index was built from
+	 */
+	CSRGraph snapshot()
+	{
+		return csr;
+	}
+
+	/**
+	 * Find the vertex closest to a location
+	 * @param lat The latitude of the location
+	 * @param lon The longitude of the location
+	 * @return the id of the closest vertex, or -1 if the graph is empty
+	 */
+	int nearest(double lat, double lon)
+	{
+		int[] result = nearest(lat, lon, 1);
+		return result.length == 0 ? -1 : result[0];
+	}
+
+	/**
+	 * Find the k vertices closest to a location
+	 * @param lat The latitude of the location
+	 * @param lon The longitude of the location
+	 * @param k The number of vertices to find
+	 * @return the ids of up to k vertices, closest first
+	 * @throws IllegalArgumentException if k is less than 1
+	 */
+	int[] nearest(double lat, double lon, int k)
+	{
+		if (k < 1) {
+			throw new IllegalArgumentException("nearest: k must be at least 1");
+		}
+		k = Math.min(k, tree.length);
+		Neighbors best = new Neighbors(k);
+		if (k > 0) {
+			nearest(0, tree.length, 0, lon * lonScale, lat, best);
+		}
+		return best.sorted();
+	}
+
+	/**
+	 * Find the vertices inside a latitude/longitude box
+	 * @param minLat The southern edge of the box
+	 * @param minLon The western edge of the box
+	 * @param maxLat The northern edge of the box
+	 * @param maxLon The eastern edge of the box
+	 * @return the ids of the vertices in the box, in no particular order
+	 */
+	int[] within(double minLat, double minLon, double maxLat, double maxLon)
+	{
+		IntList found = new IntList();
+		within(0, tree.length, 0, minLon * lonScale, minLat,
+				maxLon * lonScale, maxLat, found);
+		return found.toArray();
+	}
+
+	// Put the median of [lo, hi) on the splitting axis in the middle,
+	// then build the two halves on the other axis
+	private void build(int lo, int hi, int depth)
+	{
+		if (hi - lo <= 1) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		double[] axis = depth % 2 == 0 ? x : y;
+		select(lo, hi - 1, mid, axis);
+		build(lo, mid, depth + 1);
+		build(mid + 1, hi, depth + 1);
+	}
+
+	// Quickselect: rearrange tree[lo..hi] so that tree[k] holds the
+	// element of rank k by the given coordinate
+	private void select(int lo, int hi, int k, double[] axis)
+	{
+		while (hi > lo) {
+			double pivot = axis[tree[(lo + hi) >>> 1]];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (axis[tree[i]] < pivot) i++;
+				while (axis[tree[j]] > pivot) j--;
+				if (i <= j) {
+					int tmp = tree[i];
+					tree[i] = tree[j];
+					tree[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			}
+			else if (k >= i) {
+				lo = i;
+			}
+			else {
+				return;
+			}
+		}
+	}
+
+	// Search [lo, hi) for the points closest to (qx, qy)
+	private void nearest(int lo, int hi, int depth, double qx, double qy,
+			Neighbors best)
+	{
+		if (lo >= hi) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		int v = tree[mid];
+		double dx = x[v] - qx;
+		double dy = y[v] - qy;
+		best.offer(v, dx * dx + dy * dy);
+
+		double split = depth % 2 == 0 ? dx : dy;
+		// search the side of the split the query is on first
+		if (split > 0) {
+			nearest(lo, mid, depth + 1, qx, qy, best);
+			if (split * split < best.worst()) {
+				nearest(mid + 1, hi, depth + 1, qx, qy, best);
+			}
+		}
+		else {
+			nearest(mid + 1, hi, depth + 1, qx, qy, best);
+			if (split * split < best.worst()) {
+				nearest(lo, mid, depth + 1, qx, qy, best);
+			}
+		}
+	}
+
+	// Add the points of [lo, hi) inside the box to found
+	private void within(int lo, int hi, int depth, double minX, double minY,
+			double maxX, double maxY, IntList found)
+	{
+		if (lo >= hi) {
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		int v = tree[mid];
+		if (x[v] >= minX && x[v] <= maxX && y[v] >= minY && y[v] <= maxY) {
+			found.add(v);
+		}
+		double coord = depth % 2 == 0 ? x[v] : y[v];
+		double min = depth % 2 == 0 ? minX : minY;
+		double max = depth % 2 == 0 ? maxX : maxY;
+		if (min <= coord) {
+			within(lo, mid, depth + 1, minX, minY, maxX, maxY, found);
+		}
+		if (coord <= max) {
+			within(mid + 1, hi, depth + 1, minX, minY, maxX, maxY, found);
+		}
+	}
+
+	/** The k best candidates seen so far, as a max-heap on distance */
+	private static final class Neighbors
+	{
+		private final int[] ids;
+		private final double[] dist;
+		private int size;
+
+		Neighbors(int k)
+		{
+			ids = new int[k];
+			dist = new double[k];
+		}
+
+		// The distance a new point must beat to be kept
+		double worst()
+		{
+			return size < ids.length ? Double.POSITIVE_INFINITY : dist[0];
+		}
+
+		void offer(int id, double d)
+		{
+			if (size < ids.length) {
+				ids[size] = id;
+				dist[size] = d;
+				int i = size++;
+				while (i > 0 && dist[(i - 1) / 2] < dist[i]) {
+					swap(i, (i - 1) / 2);
+					i = (i - 1) / 2;
+				}
+			}
+			else if (d < dist[0]) {
+				ids[0] = id;
+				dist[0] = d;
+				int i = 0;
+				while (true) {
+					int largest = i;
+					for (int c = 2 * i + 1; c <= 2 * i + 2 && c < size; c++) {
+						if (dist[c] > dist[largest]) {
+							largest = c;
+						}
+					}
+					if (largest == i) {
+						break;
+					}
+					swap(i, largest);
+					i = largest;
+				}
+			}
+		}
+
+		// The ids, closest first
+		int[] sorted()
+		{
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Double.compare(dist[a], dist[b]));
+			int[] result = new int[size];
+			for (int i = 0; i < size; i++) {
+				result[i] = ids[order[i]];
+			}
+			return result;
+		}
+
+		private void swap(int i, int j)
+		{
+			int id = ids[i];
+			ids[i] = ids[j];
+			ids[j] = id;
+			double d = dist[i];
+			dist[i] = dist[j];
+			dist[j] = d;
+		}
+	}
+
+}
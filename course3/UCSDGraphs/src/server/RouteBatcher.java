@@ -0,0 +1,140 @@
+/**
+ * Groups route queries against one map so that they share searches
+ */
+package server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+import geography.GeographicPoint;
+import roadgraph.CostProfile;
+import roadgraph.DistanceMatrix;
+import roadgraph.MapGraph;
+import roadgraph.Route;
+
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * Answers route queries on one MapGraph in batches.  A query is queued
+ * and the thread that submitted it then drains the queue itself, unless
+ * every worker slot is taken, in which case a thread already draining
+ * will pick the query up when its current batch is done.  So queries
+ * wait only while the cores are busy, and the queue fills up exactly
+ * when batching pays off.
+ *
+ * In a batch, the queries with the same start and cost profile are
+ * answered by a single search, a one-row distanceMatrix that stops once
+ * all of their goals are settled.
+ *
+ */
+class RouteBatcher
+{
+	private final MapGraph graph;
+	private final int maxBatch;
+	private final ConcurrentLinkedQueue<Query> pending = new ConcurrentLinkedQueue<Query>();
+	private final Semaphore workers;
+
+	/**
+	 * @param graph The map to search
+	 * @param workers The most batches to run at once
+	 * @param maxBatch The most queries in one batch
+	 */
+	RouteBatcher(MapGraph graph, int workers, int maxBatch)
+	{
+		this.graph = graph;
+		this.maxBatch = maxBatch;
+		this.workers = new Semaphore(workers);
+	}
+
+	/**
+	 * Queue a query and help drain the queue
+	 * @param start An intersection of the map
+	 * @param goal An intersection of the map
+	 * @param profile The cost of each road segment
+	 * @return the cheapest route, or null if there is none, once it is found
+	 */
+	CompletableFuture<Route> submit(GeographicPoint start, GeographicPoint goal,
+			CostProfile profile)
+	{
+		Query query = new Query(start, goal, profile);
+		pending.add(query);
+		// A query added after the isEmpty check is drained by its own
+		// submitter, which finds the permit that was just released
+		while (!pending.isEmpty() && workers.tryAcquire()) {
+			try {
+				List<Query> batch = new ArrayList<Query>();
+				Query next;
+				while (batch.size() < maxBatch && (next = pending.poll()) != null) {
+					batch.add(next);
+				}
+				run(batch);
+			}
+			finally {
+				workers.release();
+			}
+		}
+		return query.result;
+	}
+
+	// Answer each group of queries with a common start and profile by
+	// one search
+	private void run(List<Query> batch)
+	{
+		Map<CostProfile,Map<GeographicPoint,List<Query>>> groups =
+				new LinkedHashMap<CostProfile,Map<GeographicPoint,List<Query>>>();
+		for (Query query : batch) {
+			groups.computeIfAbsent(query.profile,
+					(p) -> new LinkedHashMap<GeographicPoint,List<Query>>())
+					.computeIfAbsent(query.start, (s) -> new ArrayList<Query>())
+					.add(query);
+		}
+		for (Map.Entry<CostProfile,Map<GeographicPoint,List<Query>>> byProfile
+				: groups.entrySet()) {
+			for (Map.Entry<GeographicPoint,List<Query>> group
+					: byProfile.getValue().entrySet()) {
+				List<Query> queries = group.getValue();
+				try {
+					List<GeographicPoint> goals = new ArrayList<GeographicPoint>(queries.size());
+					for (Query query : queries) {
+						goals.add(query.goal);
+					}
+					DistanceMatrix matrix = graph.distanceMatrix(
+							Collections.singletonList(group.getKey()), goals, true,
+							byProfile.getKey());
+					for (int j = 0; j < queries.size(); j++) {
+						List<GeographicPoint> path = matrix.getPath(0, j);
+						queries.get(j).result.complete(path == null ? null : graph.routeOf(path));
+					}
+				}
+				catch (RuntimeException e) {
+					for (Query query : queries) {
+						query.result.completeExceptionally(e);
+					}
+				}
+			}
+		}
+	}
+
+	/** A queued route query */
+	private static class Query
+	{
+		final GeographicPoint start;
+		final GeographicPoint goal;
+		final CostProfile profile;
+		final CompletableFuture<Route> result = new CompletableFuture<Route>();
+
+		Query(GeographicPoint start, GeographicPoint goal, CostProfile profile)
+		{
+			this.start = start;
+			this.goal = goal;
+			this.profile = profile;
+		}
+	}
+
+}
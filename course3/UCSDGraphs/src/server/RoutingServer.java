@@ -0,0 +1,419 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonWriter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import geography.GeographicPoint;
+import roadgraph.CostProfile;
+import roadgraph.DistanceMatrix;
+import roadgraph.MapGraph;
+import roadgraph.Route;
+import util.BinaryMapFile;
+import util.GraphLoader;
+
+/** A headless HTTP server for routing queries on the maps in data/maps
+ *
+ * Every map is loaded once at startup and named after its file, so
+ * data/maps/san_diego.map is "san_diego" (a .mapb file is used in place
+ * of the .map file of the same name).  Queries are JSON objects POSTed
+ * to one of these paths, with locations given as {"lat": .., "lon": ..}
+ * and snapped to the nearest intersection:
+ *
+ *   /route   {"map", "from", "to", "profile"}
+ *            returns {"cost", "points"}, or 404 if there is no route
+ *   /matrix  {"map", "origins", "destinations", "profile"}
+ *            returns {"costs"}, one row per origin, null where there is
+ *            no route
+ *   /nearest {"map", "lat", "lon", "k"}
+ *            returns {"points"}, the k intersections closest first
+ *
+ * "profile" is shortest (km, the default), fastest (minutes) or
+ * avoidResidential, and "k" defaults to 1.  A GET of /maps lists the
+ * maps with their sizes.
+ *
+ * Each exchange is handled on its own virtual thread when the JVM has
+ * them (Java 21 on), or else on a fixed pool.  Route queries go through
+ * a RouteBatcher per map, which shares one search among the queries
+ * from the same start.  At most maxInFlight queries are admitted at a
+ * time; the rest are turned away at once with 503 Service Unavailable
+ * and a Retry-After header, instead of queueing without bound.  Without
+ * virtual threads each admitted query holds a pool thread, so keep
+ * maxInFlight (256 by default) in the hundreds there.
+ *
+ * Usage: java server.RoutingServer [port] [maxInFlight]
+ *
+ * @author UCSD MOOC development team and YOU
+ *
+ */
+public class RoutingServer {
+
+	/** The maps to serve */
+	private static final String MAP_DIR = "data/maps";
+
+	/** The most route queries answered in one batch */
+	private static final int MAX_BATCH = 256;
+
+	/** The most cells in one /matrix query */
+	private static final int MAX_MATRIX_CELLS = 100000;
+
+	/** The most points in one /nearest query */
+	private static final int MAX_NEAREST = 1000;
+
+	private static final Map<String,CostProfile> PROFILES = new LinkedHashMap<String,CostProfile>();
+	static {
+		for (CostProfile profile : Arrays.asList(CostProfile.SHORTEST, CostProfile.FASTEST,
+				CostProfile.AVOID_RESIDENTIAL)) {
+			PROFILES.put(profile.getName(), profile);
+		}
+	}
+
+	private final Map<String,MapGraph> graphs = new LinkedHashMap<String,MapGraph>();
+	private final Map<String,RouteBatcher> batchers = new LinkedHashMap<String,RouteBatcher>();
+	private final Semaphore admitted;
+	private final ExecutorService executor;
+	private final HttpServer server;
+
+	/**
+	 * Load every map in the directory and bind the server, without
+	 * starting it
+	 * @param port The port to listen on, or 0 for any free port
+	 * @param mapDir The directory of .map files to serve
+	 * @param maxInFlight The most queries to admit at once
+	 * @throws IOException if the port cannot be bound
+	 */
+	public RoutingServer(int port, String mapDir, int maxInFlight) throws IOException
+	{
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (File file : mapFiles(mapDir)) {
+			String name = file.getName().substring(0, file.getName().lastIndexOf('.'));
+			long start = System.nanoTime();
+			MapGraph graph = new MapGraph();
+			GraphLoader.loadRoadMap(file.getPath(), graph);
+			graphs.put(name, graph);
+			batchers.put(name, new RouteBatcher(graph, cores, MAX_BATCH));
+			System.out.println("Loaded " + name + ": " + graph.getNumVertices() + " vertices, "
+					+ graph.getNumEdges() + " edges in "
+					+ (System.nanoTime() - start) / 1000000 + " ms");
+		}
+
+		admitted = new Semaphore(maxInFlight);
+		executor = newExecutor(maxInFlight);
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.setExecutor(executor);
+		server.createContext("/maps", (exchange) -> {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				send(exchange, 405, error("use GET"));
+				return;
+			}
+			JsonArrayBuilder maps = Json.createArrayBuilder();
+			for (Map.Entry<String,MapGraph> entry : graphs.entrySet()) {
+				maps.add(Json.createObjectBuilder()
+						.add("name", entry.getKey())
+						.add("vertices", entry.getValue().getNumVertices())
+						.add("edges", entry.getValue().getNumEdges()));
+			}
+			send(exchange, 200, Json.createObjectBuilder().add("maps", maps).build());
+		});
+		server.createContext("/route", query(this::route));
+		server.createContext("/matrix", query(this::matrix));
+		server.createContext("/nearest", query(this::nearest));
+	}
+
+	/** Start serving queries */
+	public void start()
+	{
+		server.start();
+	}
+
+	/**
+	 * Stop serving, waiting up to delay seconds for queries in progress
+	 * @param delay The longest to wait, in seconds
+	 */
+	public void stop(int delay)
+	{
+		server.stop(delay);
+		executor.shutdown();
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		int maxInFlight = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+		RoutingServer server = new RoutingServer(port, MAP_DIR, maxInFlight);
+		server.start();
+		System.out.println("Serving " + server.graphs.keySet() + " on port " + server.getPort());
+	}
+
+	// The body of a POST query, given the parsed request
+	private interface Query
+	{
+		JsonObject answer(JsonObject request) throws QueryException;
+	}
+
+	// A request that cannot be answered, with the status to reply with
+	private static class QueryException extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+
+		final int status;
+
+		QueryException(int status, String message)
+		{
+			super(message);
+			this.status = status;
+		}
+	}
+
+	// Wrap a query with admission control, JSON parsing and error replies
+	private HttpHandler query(Query query)
+	{
+		return (exchange) -> {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				send(exchange, 405, error("use POST"));
+				return;
+			}
+			if (!admitted.tryAcquire()) {
+				exchange.getResponseHeaders().set("Retry-After", "1");
+				send(exchange, 503, error("too many queries in flight"));
+				return;
+			}
+			try {
+				JsonObject request;
+				try (InputStream in = exchange.getRequestBody()) {
+					request = Json.createReader(in).readObject();
+				}
+				send(exchange, 200, query.answer(request));
+			}
+			catch (QueryException e) {
+				send(exchange, e.status, error(e.getMessage()));
+			}
+			catch (JsonException e) {
+				send(exchange, 400, error("malformed JSON: " + e.getMessage()));
+			}
+			catch (ClassCastException | NullPointerException e) {
+				send(exchange, 400, error("a field is missing or of the wrong type"));
+			}
+			catch (RuntimeException e) {
+				send(exchange, 500, error(e.toString()));
+			}
+			finally {
+				admitted.release();
+			}
+		};
+	}
+
+	private JsonObject route(JsonObject request) throws QueryException
+	{
+		String name = request.getString("map");
+		MapGraph graph = graph(name);
+		GeographicPoint from = snap(graph, request.getJsonObject("from"));
+		GeographicPoint to = snap(graph, request.getJsonObject("to"));
+		Route route;
+		try {
+			route = batchers.get(name).submit(from, to, profile(request)).get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new QueryException(503, "interrupted");
+		}
+		catch (ExecutionException e) {
+			throw new QueryException(500, e.getCause().toString());
+		}
+		if (route == null) {
+			throw new QueryException(404, "no route from " + from + " to " + to);
+		}
+		return Json.createObjectBuilder()
+				.add("cost", route.getCost())
+				.add("points", points(route.getPoints()))
+				.build();
+	}
+
+	private JsonObject matrix(JsonObject request) throws QueryException
+	{
+		MapGraph graph = graph(request.getString("map"));
+		JsonArray origins = request.getJsonArray("origins");
+		JsonArray destinations = request.getJsonArray("destinations");
+		if ((long)origins.size() * destinations.size() > MAX_MATRIX_CELLS) {
+			throw new QueryException(400, "more than " + MAX_MATRIX_CELLS + " cells");
+		}
+		DistanceMatrix matrix = graph.distanceMatrix(snap(graph, origins),
+				snap(graph, destinations), false, profile(request));
+		JsonArrayBuilder costs = Json.createArrayBuilder();
+		for (int i = 0; i < origins.size(); i++) {
+			JsonArrayBuilder row = Json.createArrayBuilder();
+			for (int j = 0; j < destinations.size(); j++) {
+				double cost = matrix.getDistance(i, j);
+				if (cost == Double.POSITIVE_INFINITY) {
+					row.addNull();
+				}
+				else {
+					row.add(cost);
+				}
+			}
+			costs.add(row);
+		}
+		return Json.createObjectBuilder().add("costs", costs).build();
+	}
+
+	private JsonObject nearest(JsonObject request) throws QueryException
+	{
+		MapGraph graph = graph(request.getString("map"));
+		int k = request.getInt("k", 1);
+		if (k < 1 || k > MAX_NEAREST) {
+			throw new QueryException(400, "k must be from 1 to " + MAX_NEAREST);
+		}
+		return Json.createObjectBuilder()
+				.add("points", points(graph.nearestVertices(
+						request.getJsonNumber("lat").doubleValue(),
+						request.getJsonNumber("lon").doubleValue(), k)))
+				.build();
+	}
+
+	private MapGraph graph(String name) throws QueryException
+	{
+		MapGraph graph = graphs.get(name);
+		if (graph == null) {
+			throw new QueryException(404, "no map named " + name);
+		}
+		return graph;
+	}
+
+	private static CostProfile profile(JsonObject request) throws QueryException
+	{
+		String name = request.getString("profile", CostProfile.SHORTEST.getName());
+		CostProfile profile = PROFILES.get(name);
+		if (profile == null) {
+			throw new QueryException(400, "profile must be one of " + PROFILES.keySet());
+		}
+		return profile;
+	}
+
+	// The intersection closest to a {"lat", "lon"} object
+	private static GeographicPoint snap(MapGraph graph, JsonObject location)
+			throws QueryException
+	{
+		GeographicPoint point = graph.nearestVertex(location.getJsonNumber("lat").doubleValue(),
+				location.getJsonNumber("lon").doubleValue());
+		if (point == null) {
+			throw new QueryException(404, "the map is empty");
+		}
+		return point;
+	}
+
+	private static List<GeographicPoint> snap(MapGraph graph, JsonArray locations)
+			throws QueryException
+	{
+		List<GeographicPoint> points = new ArrayList<GeographicPoint>(locations.size());
+		for (int i = 0; i < locations.size(); i++) {
+			points.add(snap(graph, locations.getJsonObject(i)));
+		}
+		return points;
+	}
+
+	private static JsonArrayBuilder points(List<GeographicPoint> points)
+	{
+		JsonArrayBuilder array = Json.createArrayBuilder();
+		for (GeographicPoint point : points) {
+			array.add(Json.createObjectBuilder()
+					.add("lat", point.getX())
+					.add("lon", point.getY()));
+		}
+		return array;
+	}
+
+	private static JsonObject error(String message)
+	{
+		return Json.createObjectBuilder().add("error", message).build();
+	}
+
+	private static void send(HttpExchange exchange, int status, JsonObject body)
+			throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (JsonWriter writer = Json.createWriter(bytes)) {
+			writer.writeObject(body);
+		}
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.size());
+		try (OutputStream out = exchange.getResponseBody()) {
+			bytes.writeTo(out);
+		}
+	}
+
+	// The .map files of the directory, with a .mapb file in place of the
+	// .map file of the same name
+	private static List<File> mapFiles(String mapDir) throws IOException
+	{
+		File[] files = new File(mapDir).listFiles();
+		if (files == null) {
+			throw new IOException("cannot list " + mapDir);
+		}
+		Arrays.sort(files);
+		Map<String,File> byName = new LinkedHashMap<String,File>();
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(".map") && !byName.containsKey(name.substring(0, name.length() - 4))) {
+				byName.put(name.substring(0, name.length() - 4), file);
+			}
+			else if (BinaryMapFile.isBinary(name)) {
+				byName.put(name.substring(0, name.length() - BinaryMapFile.EXTENSION.length()), file);
+			}
+		}
+		return new ArrayList<File>(byName.values());
+	}
+
+	// A virtual thread per exchange where the JVM has them, which is
+	// looked up reflectively so that the server still builds for Java 8.
+	// Otherwise a pool with a thread for each query that can be admitted,
+	// most of which wait on a RouteBatcher rather than use a core, and a
+	// thread per core more to turn the others away
+	private static ExecutorService newExecutor(int maxInFlight)
+	{
+		try {
+			Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)virtual.invoke(null);
+		}
+		catch (ReflectiveOperationException | UnsupportedOperationException e) {
+			int threads = maxInFlight + Runtime.getRuntime().availableProcessors();
+			return Executors.newFixedThreadPool(threads, (task) -> {
+				Thread thread = new Thread(task, "routing");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * Reads and writes road data in a binary form of the .map format.
+ */
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The same road segments as a .map file, one per line of the text form,
+ * stored in binary so that large files need no text parsing:
+ *
+ *   int MAGIC, int VERSION, then records, each starting with a tag byte:
+ *     STRING:  a road name or type (writeUTF); strings are numbered
+ *              0, 1, 2, ... in the order they appear
+ *     SEGMENT: double lat1, lon1, lat2, lon2, int name, int type
+ *     END
+ *
+ * Each name and type is written once, before the first segment that
+ * uses it, so files can be written and read in a single pass.  By
+ * convention these files end in ".mapb"; GraphLoader reads them
+ * wherever it reads a .map file.
+ */
+public final class BinaryMapFile
+{
+	/** The file name extension of binary map files */
+	public static final String EXTENSION = ".mapb";
+
+	private static final int MAGIC = 0x4d415042; // "MAPB"
+	private static final int VERSION = 1;
+
+	private static final byte STRING = 0;
+	private static final byte SEGMENT = 1;
+	private static final byte END = 2;
+
+	private BinaryMapFile() {}
+
+	/** Receives the segments of a file as it is read */
+	public interface SegmentHandler
+	{
+		/**
+		 * Handle one segment, the equivalent of one .map line
+		 * @param lat1 The latitude of the start of the segment
+		 * @param lon1 The longitude of the start of the segment
+		 * @param lat2 The latitude of the end of the segment
+		 * @param lon2 The longitude of the end of the segment
+		 * @param roadName The name of the road
+		 * @param roadType The type of the road
+		 */
+		void segment(double lat1, double lon1, double lat2, double lon2,
+				String roadName, String roadType);
+	}
+
+	/**
+	 * @param filename The name of a road data file
+	 * @return true if the name has the binary map file extension
+	 */
+	public static boolean isBinary(String filename)
+	{
+		return filename.endsWith(EXTENSION);
+	}
+
+	/**
+	 * Read every segment of a binary map file, in order
+	 * @param filename The file to read
+	 * @param handler Receives each segment
+	 * @throws IOException if the file cannot be read or is not a binary
+	 *   map file of a supported version
+	 */
+	public static void read(String filename, SegmentHandler handler) throws IOException
+	{
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(filename), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(filename + " is not a binary map file");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException(filename + ": unsupported version " + version);
+			}
+			List<String> strings = new ArrayList<String>();
+			while (true) {
+				byte tag = in.readByte();
+				if (tag == END) {
+					break;
+				}
+				else if (tag == STRING) {
+					strings.add(in.readUTF());
+				}
+				else if (tag == SEGMENT) {
+					double lat1 = in.readDouble();
+					double lon1 = in.readDouble();
+					double lat2 = in.readDouble();
+					double lon2 = in.readDouble();
+					String name = strings.get(in.readInt());
+					String type = strings.get(in.readInt());
+					handler.segment(lat1, lon1, lat2, lon2, name, type);
+				}
+				else {
+					throw new IOException(filename + ": bad record tag " + tag);
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes a binary map file one segment at a time
+	 */
+	public static class Writer implements Closeable
+	{
+		private final DataOutputStream out;
+		private final HashMap<String,Integer> ids = new HashMap<String,Integer>();
+
+		/**
+		 * Create the file and write its header
+		 * @param filename The file to write
+		 * @throws IOException if the file cannot be created
+		 */
+		public Writer(String filename) throws IOException
+		{
+			out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+
+		/**
+		 * Write one segment, the equivalent of one .map line
+		 * @param lat1 The latitude of the start of the segment
+		 * @param lon1 The longitude of the start of the segment
+		 * @param lat2 The latitude of the end of the segment
+		 * @param lon2 The longitude of the end of the segment
+		 * @param roadName The name of the road
+		 * @param roadType The type of the road
+		 * @throws IOException if the segment cannot be written
+		 */
+		public void segment(double lat1, double lon1, double lat2, double lon2,
+				String roadName, String roadType) throws IOException
+		{
+			int name = id(roadName);
+			int type = id(roadType);
+			out.writeByte(SEGMENT);
+			out.writeDouble(lat1);
+			out.writeDouble(lon1);
+			out.writeDouble(lat2);
+			out.writeDouble(lon2);
+			out.writeInt(name);
+			out.writeInt(type);
+		}
+
+		/**
+		 * Finish the file and close it
+		 * @throws IOException if the file cannot be written
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			out.writeByte(END);
+			out.close();
+		}
+
+		// The number of s, writing it first if it is new
+		private int id(String s) throws IOException
+		{
+			Integer id = ids.get(s);
+			if (id == null) {
+				id = ids.size();
+				ids.put(s, id);
+				out.writeByte(STRING);
+				out.writeUTF(s);
+			}
+			return id;
+		}
+	}
+
+}
@@ -7,18 +7,21 @@
 package util;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import basicgraph.Graph;
 import geography.GeographicPoint;
@@ -28,6 +31,13 @@ import roadgraph.MapGraph;
 
 public class GraphLoader 
 {
+	// Text map files are read in parts of at least this many bytes, one
+	// per core
+	private static final long MIN_PART_BYTES = 1 << 22;
+
+	// Maps with at least this many points are searched for intersections,
+	// and traced, in parallel
+	private static final int PARALLEL_POINTS = 1 << 14;
 	
 	/** 
 	 * 	 * The file contains data lines as follows:
@@ -37,7 +47,9 @@ public class GraphLoader
 	 * These road segments are assumed to be ONE WAY.
 	 * 
 	 * This method will collapse the points so that only intersections 
-	 * are represented as nodes in the graph.
+	 * are represented as nodes in the graph.  The file written is kept in
+	 * the IntersectionCache, and copied from it the next time the same
+	 * road data is given.
 	 * 
 	 * @param roadDataFile The file containing the road data, in the format 
 	 *   described.
@@ -45,9 +57,12 @@ public class GraphLoader
 	 */
 	public static void createIntersectionsFile(String roadDataFile, String intersectionsFile)
 	{
+		String hash = IntersectionCache.hashOf(roadDataFile);
+		if (IntersectionCache.copyIntersectionsFile(hash, intersectionsFile)) {
+			return;
+		}
 		Collection<GeographicPoint> nodes = new HashSet<GeographicPoint>();
-        HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		buildPointMapOneWay(roadDataFile);
+        PointMap pointMap = buildPointMapOneWay(roadDataFile);
 		
         // Print the intersections to the file
 		List<GeographicPoint> intersections = findIntersections(pointMap);
@@ -60,17 +75,14 @@ public class GraphLoader
 
 			// Now we need to add the edges
 			// This is the tricky part
+			BitSet isNode = indexNodes(pointMap, nodes);
 			for (GeographicPoint pt : nodes) {
 				// Trace the node to its next node, building up the points 
 				// on the edge as you go.
-				List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(pt);
-				LinkedList<RoadLineInfo> outgoing = inAndOut.get(0);
-				for (RoadLineInfo info : outgoing) {
-					HashSet<GeographicPoint> used = new HashSet<GeographicPoint>();
-					used.add(pt);
-				
+				int p = pointMap.indexOf(pt);
+				for (int i = 0; i < pointMap.outDegree(p); i++) {
 					List<GeographicPoint> pointsOnEdge = 
-							findPointsOnEdge(pointMap, info, nodes);
+							findPointsOnEdge(pointMap, pointMap.out(p, i), isNode);
 					GeographicPoint end = pointsOnEdge.remove(pointsOnEdge.size()-1);
 					writer.println(pt + " " + end);
 				}
@@ -78,6 +90,7 @@ public class GraphLoader
 			}
 			writer.flush();
 			writer.close();
+			IntersectionCache.keepIntersectionsFile(hash, intersectionsFile);
 		}
 		catch (Exception e) {
 			System.out.println("Exception opening intersections file " + e);
@@ -123,7 +136,8 @@ public class GraphLoader
 	 * These road segments are assumed to be ONE WAY.
 	 * 
 	 * This method will collapse the points so that only intersections 
-	 * are represented as nodes in the graph.
+	 * are represented as nodes in the graph.  A graph snapshot (a file
+	 * ending in .mapg, see GraphSnapshotFile) is read as the graph it holds.
 	 * 
 	 * @param filename The file containing the road data, in the format 
 	 *   described.
@@ -133,25 +147,136 @@ public class GraphLoader
 	public static void loadRoadMap(String filename, roadgraph.MapGraph map,  
 			HashMap<GeographicPoint,HashSet<RoadSegment>> segments, 
 			Set<GeographicPoint> intersectionsToLoad)
+	{
+		if (GraphSnapshotFile.isSnapshot(filename)) {
+			loadSnapshot(filename, map, segments, intersectionsToLoad);
+		}
+		else {
+			buildRoadGraph(filename, map, segments, intersectionsToLoad, null);
+		}
+	}
+
+	/**
+	 * Read in a map file like loadRoadMap, but keep the graph built from
+	 * it in a snapshot file next to it (see GraphSnapshotFile).  The
+	 * snapshot is written the first time, and again whenever the map
+	 * file changes or the snapshot cannot be read; otherwise the graph is
+	 * read from it without parsing the map file or finding its
+	 * intersections.
+	 * 
+	 * @param filename The file containing the road data
+	 * @param map The graph to load the map into
+	 * @param segments The road segments of each intersection, as for
+	 *   loadRoadMap, or null
+	 * @param intersectionsToLoad The set to add the intersections to, or null
+	 */
+	public static void loadRoadMapWithSnapshot(String filename, roadgraph.MapGraph map,  
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments, 
+			Set<GeographicPoint> intersectionsToLoad)
+	{
+		String snapshot = GraphSnapshotFile.snapshotOf(filename);
+		if (GraphSnapshotFile.isCurrent(snapshot, filename)) {
+			if (loadSnapshot(snapshot, map, segments, intersectionsToLoad)) {
+				return;
+			}
+			// nothing was loaded from it; build it again
+			new File(snapshot).delete();
+		}
+		GraphSnapshotFile.Writer writer = new GraphSnapshotFile.Writer(snapshot, filename);
+		buildRoadGraph(filename, map, segments, intersectionsToLoad, writer);
+		try {
+			writer.close();
+		} catch (IOException e) {
+			// the graph is loaded; it will be built from the map file again next time
+			System.err.println("Problem writing graph snapshot: " + snapshot);
+			new File(snapshot).delete();
+		}
+	}
+
+	/**
+	 * Build the graph of a map file and write it as a snapshot
+	 * (see GraphSnapshotFile), which loadRoadMap can read in place of
+	 * the map file.
+	 * 
+	 * @param mapFile The file containing the road data
+	 * @param snapshotFile The snapshot file to write
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public static void writeSnapshot(String mapFile, String snapshotFile) throws IOException
+	{
+		GraphSnapshotFile.Writer writer = new GraphSnapshotFile.Writer(snapshotFile, mapFile);
+		buildRoadGraph(mapFile, null, null, null, writer);
+		writer.close();
+	}
+
+	// Find the intersections of a map file and trace the edges between
+	// them, adding each to map (and segments and intersectionsToLoad) if
+	// it is not null, and to writer if it is not null.
+	private static void buildRoadGraph(String filename, roadgraph.MapGraph map,  
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments, 
+			Set<GeographicPoint> intersectionsToLoad, GraphSnapshotFile.Writer writer)
 	{
 		Collection<GeographicPoint> nodes = new HashSet<GeographicPoint>();
-        HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		buildPointMapOneWay(filename);
+        PointMap pointMap = buildPointMapOneWay(filename);
 		
         // Add the nodes to the graph
-		List<GeographicPoint> intersections = findIntersections(pointMap);
+		List<GeographicPoint> intersections = 
+				findIntersections(pointMap);
 		for (GeographicPoint pt : intersections) {
-			map.addVertex(pt);
+			if (map != null) {
+				map.addVertex(pt);
+			}
 			if (intersectionsToLoad != null) {
 				intersectionsToLoad.add(pt);
 			}
+			if (writer != null) {
+				writer.vertex(pt);
+			}
 			nodes.add(pt);
 		}
 		
 		
-		addEdgesAndSegments(nodes, pointMap, map, segments);
+		traceEdges(nodes, pointMap, (pt, end, roadName, roadType, length, pointsOnEdge) -> {
+			if (map != null) {
+				addEdgeAndSegment(map, segments, pt, end, roadName, roadType,
+						length, pointsOnEdge);
+			}
+			if (writer != null) {
+				writer.edge(pt, end, roadName, roadType, length, pointsOnEdge);
+			}
+		});
 	}
 
+	// Rebuild a graph from a snapshot, in the same order it was built.
+	// Returns false, having added nothing, if the snapshot cannot be read.
+	private static boolean loadSnapshot(String filename, roadgraph.MapGraph map,  
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments, 
+			Set<GeographicPoint> intersectionsToLoad)
+	{
+		try {
+			GraphSnapshotFile.read(filename, new GraphSnapshotFile.GraphHandler() {
+				@Override
+				public void vertex(GeographicPoint location) {
+					map.addVertex(location);
+					if (intersectionsToLoad != null) {
+						intersectionsToLoad.add(location);
+					}
+				}
+
+				@Override
+				public void edge(GeographicPoint from, GeographicPoint to, String roadName,
+						String roadType, double length, List<GeographicPoint> geometry) {
+					addEdgeAndSegment(map, segments, from, to, roadName, roadType,
+							length, geometry);
+				}
+			}, segments != null);
+			return true;
+		} catch (IOException e) {
+			System.err.println("Problem loading graph snapshot: " + filename);
+			e.printStackTrace();
+			return false;
+		}
+	}
 	
 	/**
 	 * 
@@ -173,8 +298,7 @@ public class GraphLoader
 	 */
 	public static void loadRoadMap(String filename, basicgraph.Graph theGraph)
 	{
-		HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		buildPointMapOneWay(filename);
+		PointMap pointMap = buildPointMapOneWay(filename);
 		
 		HashMap<Integer,GeographicPoint> vertexMap = 
 				new HashMap<Integer,GeographicPoint>();
@@ -182,7 +306,8 @@ public class GraphLoader
 				new HashMap<GeographicPoint,Integer>();
 		
         // Add the nodes to the graph
-		List<GeographicPoint> intersections = findIntersections(pointMap);
+		List<GeographicPoint> intersections = 
+				findIntersections(pointMap);
 		
 		int index = 0;
 		for (GeographicPoint pt : intersections) {
@@ -193,16 +318,15 @@ public class GraphLoader
 		}
 		
 		// Now add the edges
+		BitSet isNode = indexNodes(pointMap, intersections);
 		Collection<Integer> nodes = vertexMap.keySet();
 		for (Integer nodeNum : nodes) {
 			// Trace the node to its next node, building up the points 
 			// on the edge as you go.
 			GeographicPoint pt = vertexMap.get(nodeNum);
-			List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(pt);
-			List<RoadLineInfo> infoList = inAndOut.get(0);
-			for (RoadLineInfo info : infoList) {
-				GeographicPoint end = findEndOfEdge(pointMap, info, theGraph, 
-						reverseMap);
+			int p = pointMap.indexOf(pt);
+			for (int i = 0; i < pointMap.outDegree(p); i++) {
+				GeographicPoint end = findEndOfEdge(pointMap, pointMap.out(p, i), isNode);
 				Integer endNum = reverseMap.get(end);
 				theGraph.addEdge(nodeNum, endNum);
 			}
@@ -319,52 +443,100 @@ public class GraphLoader
 	
 
 	
-	// Once you have built the pointMap and added the Nodes, 
-	// add the edges and build the road segments if the segments
-	// map is not null.
-	private static void addEdgesAndSegments(Collection<GeographicPoint> nodes, 
-			HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
-			MapGraph map, 
-			HashMap<GeographicPoint,HashSet<RoadSegment>> segments)
+	// Receives the edges found by traceEdges
+	private interface EdgeHandler
+	{
+		void edge(GeographicPoint pt, GeographicPoint end, String roadName,
+				String roadType, double length, List<GeographicPoint> pointsOnEdge);
+	}
+
+	// Once you have built the pointMap and found the Nodes, 
+	// trace the edges between them.
+	private static void traceEdges(Collection<GeographicPoint> nodes, 
+			PointMap pointMap, EdgeHandler handler)
 	{
 	
 		// Now we need to add the edges
 		// This is the tricky part
+		BitSet isNode = indexNodes(pointMap, nodes);
+		if (nodes.size() < PARALLEL_POINTS) {
+			for (GeographicPoint pt : nodes) {
+				traceEdgesFrom(pt, isNode, pointMap, handler);
+			}
+			return;
+		}
+		// Tracing only reads the pointMap, so on large maps the nodes are
+		// traced in parallel, and their edges handed over in order after.
+		List<GeographicPoint> starts = new ArrayList<GeographicPoint>(nodes);
+		List<List<Runnable>> traced = starts.parallelStream().map((pt) -> {
+			List<Runnable> edges = new ArrayList<Runnable>();
+			traceEdgesFrom(pt, isNode, pointMap, (from, end, roadName, roadType, length, pointsOnEdge) ->
+				edges.add(() -> handler.edge(from, end, roadName, roadType, length, pointsOnEdge)));
+			return edges;
+		}).collect(Collectors.toList());
+		for (List<Runnable> edges : traced) {
+			for (Runnable edge : edges) {
+				edge.run();
+			}
+		}
+	}
+
+	// Trace the node to its next nodes, building up the points 
+	// on each edge as you go.
+	private static void traceEdgesFrom(GeographicPoint pt, BitSet isNode, 
+			PointMap pointMap, EdgeHandler handler)
+	{
+		int p = pointMap.indexOf(pt);
+		for (int i = 0; i < pointMap.outDegree(p); i++) {
+			int segment = pointMap.out(p, i);
+			List<GeographicPoint> pointsOnEdge = 
+					findPointsOnEdge(pointMap, segment, isNode);
+			GeographicPoint end = pointsOnEdge.remove(pointsOnEdge.size()-1);
+			double length = getRoadLength(pt, end, pointsOnEdge);
+			handler.edge(pt, end, pointMap.roadName(segment), pointMap.roadType(segment),
+					length, pointsOnEdge);
+		}
+	}
+
+	// The numbers of the nodes in the pointMap
+	private static BitSet indexNodes(PointMap pointMap, Collection<GeographicPoint> nodes)
+	{
+		BitSet isNode = new BitSet(pointMap.size());
 		for (GeographicPoint pt : nodes) {
-			// Trace the node to its next node, building up the points 
-			// on the edge as you go.
-			List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(pt);
-			LinkedList<RoadLineInfo> outgoing = inAndOut.get(0);
-			for (RoadLineInfo info : outgoing) {
-				HashSet<GeographicPoint> used = new HashSet<GeographicPoint>();
-				used.add(pt);
-				
-				List<GeographicPoint> pointsOnEdge = 
-						findPointsOnEdge(pointMap, info, nodes);
-				GeographicPoint end = pointsOnEdge.remove(pointsOnEdge.size()-1);
-				double length = getRoadLength(pt, end, pointsOnEdge);
-				map.addEdge(pt, end, info.roadName, info.roadType, length);
+			isNode.set(pointMap.indexOf(pt));
+		}
+		return isNode;
+	}
 
-				// If the segments variable is not null, then we 
-				// save the road geometry
-				if (segments != null) {
-					// Now create road Segments for each edge
-					HashSet<RoadSegment> segs = segments.get(pt);
-					if (segs == null) {
-						segs = new HashSet<RoadSegment>();
-						segments.put(pt,segs);
-					}
-					RoadSegment seg = new RoadSegment(pt, end, pointsOnEdge, 
-							info.roadName, info.roadType, length);
-					segs.add(seg);
-					segs = segments.get(end);
-					if (segs == null) {
-						segs = new HashSet<RoadSegment>();
-						segments.put(end,segs);
-					}
-					segs.add(seg);
-				}
+	// Add an edge to the map, and build its road segment if the segments
+	// map is not null.
+	private static void addEdgeAndSegment(MapGraph map, 
+			HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+			GeographicPoint pt, GeographicPoint end, String roadName, 
+			String roadType, double length, List<GeographicPoint> pointsOnEdge)
+	{
+		// If the segments variable is not null, then we 
+		// save the road geometry, on the edge as well
+		if (segments == null) {
+			map.addEdge(pt, end, roadName, roadType, length);
+		}
+		else {
+			// Now create road Segments for each edge
+			RoadSegment seg = new RoadSegment(pt, end, pointsOnEdge, 
+					roadName, roadType, length);
+			map.addEdge(pt, end, roadName, roadType, length, seg);
+			HashSet<RoadSegment> segs = segments.get(pt);
+			if (segs == null) {
+				segs = new HashSet<RoadSegment>();
+				segments.put(pt,segs);
+			}
+			segs.add(seg);
+			segs = segments.get(end);
+			if (segs == null) {
+				segs = new HashSet<RoadSegment>();
+				segments.put(end,segs);
 			}
+			segs.add(seg);
 		}
 	}
 			
@@ -385,64 +557,53 @@ public class GraphLoader
 	}
 	
 	private static List<GeographicPoint>
-	findPointsOnEdge(HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
-		RoadLineInfo info, Collection<GeographicPoint> nodes) 
+	findPointsOnEdge(PointMap pointMap, int segment, BitSet isNode) 
 	{
 		List<GeographicPoint> toReturn = new LinkedList<GeographicPoint>();
-		GeographicPoint pt = info.point1;
-		GeographicPoint end = info.point2;
-		List<LinkedList<RoadLineInfo>> nextInAndOut = pointMap.get(end);
-		LinkedList<RoadLineInfo> nextLines = nextInAndOut.get(0);
-		while (!nodes.contains(end)) {
-			toReturn.add(end);
-			RoadLineInfo nextInfo = nextLines.get(0);
-			if (nextLines.size() == 2) {
-				if (nextInfo.point2.equals(pt)) {
-					nextInfo = nextLines.get(1);
-				}
-			}
-			else if (nextLines.size() != 1) {
-				System.out.println("Something went wrong building edges");
-			}
+		int pt = pointMap.from(segment);
+		int end = pointMap.to(segment);
+		while (!isNode.get(end)) {
+			toReturn.add(pointMap.point(end));
+			int next = nextSegment(pointMap, pt, end);
 			pt = end;
-			end = nextInfo.point2;
-			nextInAndOut = pointMap.get(end);
-			nextLines = nextInAndOut.get(0);
+			end = pointMap.to(next);
 		}
-		toReturn.add(end);
+		toReturn.add(pointMap.point(end));
 		
 		return toReturn;
 	}
 
 	// Find the other end of the road segment.  Trace through the pointMap 
-	// starting from the first point in this info until you get to the second.
+	// starting from the first point in this segment until you get to a node.
 	private static GeographicPoint
-	findEndOfEdge(HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
-		RoadLineInfo info, basicgraph.Graph graph, 
-		HashMap<GeographicPoint, Integer> reverseMap) 
+	findEndOfEdge(PointMap pointMap, int segment, BitSet isNode) 
 	{
 		
-		GeographicPoint pt = info.point1;
-		GeographicPoint end = info.point2;
-		Integer endNum = reverseMap.get(end);
-		while (endNum==null) {
-			List<LinkedList<RoadLineInfo>> inAndOut = pointMap.get(end);
-			List<RoadLineInfo> nextLines = inAndOut.get(0);
-			RoadLineInfo nextInfo = nextLines.get(0);
-			if (nextLines.size() == 2) {
-				if (nextInfo.point2.equals(pt)) {
-					nextInfo = nextLines.get(1);
-				}
-			}
-			else if (nextLines.size() != 1) {
-				System.out.println("Something went wrong building edges");
-			}
+		int pt = pointMap.from(segment);
+		int end = pointMap.to(segment);
+		while (!isNode.get(end)) {
+			int next = nextSegment(pointMap, pt, end);
 			pt = end;
-			end = nextInfo.point2;
-			endNum = reverseMap.get(end);
+			end = pointMap.to(next);
 		}
 		
-		return end;
+		return pointMap.point(end);
+	}
+
+	// The segment out of end that carries on along the road from pt,
+	// where end is not a node
+	private static int nextSegment(PointMap pointMap, int pt, int end)
+	{
+		int next = pointMap.out(end, 0);
+		if (pointMap.outDegree(end) == 2) {
+			if (pointMap.to(next) == pt) {
+				next = pointMap.out(end, 1);
+			}
+		}
+		else if (pointMap.outDegree(end) != 1) {
+			System.out.println("Something went wrong building edges");
+		}
+		return next;
 	}
 	
 	// Find all the intersections.  Intersections are either dead ends 
@@ -450,152 +611,132 @@ public class GraphLoader
 	// or intersections between two different roads, or where three
 	// or more segments of the same road meet.
 	private static List<GeographicPoint> 
-	findIntersections(HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap) {
-		// Now find the intersections.  These are roads that do not have
-		// Exactly 1 or 2 roads coming in and out, where the roads in
-		// match the roads out.
-		List<GeographicPoint> intersections = new LinkedList<GeographicPoint>();
-		for (GeographicPoint pt : pointMap.keySet()) {
-			List<LinkedList<RoadLineInfo>> roadsInAndOut = pointMap.get(pt);
-			LinkedList<RoadLineInfo> roadsOut = roadsInAndOut.get(0);
-			LinkedList<RoadLineInfo> roadsIn = roadsInAndOut.get(1);
-			
-			boolean isNode = true;
-			
-			if (roadsIn.size() == 1 && roadsOut.size() == 1) {
-				// If these are the reverse of each other, then this is
-				// and intersection (dead end)
-				if (!(roadsIn.get(0).point1.equals(roadsOut.get(0).point2) &&
-						roadsIn.get(0).point2.equals(roadsOut.get(0).point1))
-						&& roadsIn.get(0).roadName.equals(roadsOut.get(0).roadName)) {
-					isNode = false;
-				}
-			}
-			if (roadsIn.size() == 2 && roadsOut.size() == 2) {
-				// If all the road segments have the same name, 
-				// And there are two pairs of reversed nodes, then 
-				// this is not an intersection because the roads pass
-				// through.
-			
-				String name = roadsIn.get(0).roadName;
-				boolean sameName = true;
-				for (RoadLineInfo info : roadsIn) {
-					if (!info.roadName.equals(name)) {
-						sameName = false;
-					}
-				}
-				for (RoadLineInfo info : roadsOut) {
-					if (!info.roadName.equals(name)) {
-						sameName = false;
-					}
-				}
-				
-				RoadLineInfo in1 = roadsIn.get(0);
-				RoadLineInfo in2 = roadsIn.get(1);
-				RoadLineInfo out1 = roadsOut.get(0);
-				RoadLineInfo out2 = roadsOut.get(1);
-		
-				boolean passThrough = false;
-				if ((in1.isReverse(out1) && in2.isReverse(out2)) ||
-						(in1.isReverse(out2) && in2.isReverse(out1))) {
-					
-					passThrough = true;
-				} 
-				
-				if (sameName && passThrough) {
-					isNode = false;
-				} 
-
-			} 
-			if (isNode) {
-				intersections.add(pt);
-			}
+	findIntersections(PointMap pointMap) {
+		// Each point is checked on its own, so large maps are checked
+		// in parallel.
+		IntStream points = IntStream.range(0, pointMap.size());
+		if (pointMap.size() >= PARALLEL_POINTS) {
+			points = points.parallel();
 		}
-		return intersections;
-	}
-		
-	// Build the map from points to lists of lists of lines.
-	// The map returned is indexed by a GeographicPoint.  The values
-	// are lists of length two where each entry in the list is a list.
-	// The first list stores the outgoing roads while the second 
-	// stores the outgoing roads.
-	private static HashMap<GeographicPoint, List<LinkedList<RoadLineInfo>>>
-	buildPointMapOneWay(String filename)
-	{
-		BufferedReader reader = null;
-        HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = 
-        		new HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>>();
-		try {
-            String nextLine;
-            reader = new BufferedReader(new FileReader(filename));
-            // Read the lines out of the file and put them in a HashMap by points
-            while ((nextLine = reader.readLine()) != null) {
-            	RoadLineInfo line = splitInputString(nextLine);
-            	addToPointsMapOneWay(line, pointMap);
-            }
-            reader.close();
-        } catch (IOException e) {
-            System.err.println("Problem loading dictionary file: " + filename);
-            e.printStackTrace();
-        }
-		
-		return pointMap;
+		int[] intersections = inHashMapOrder(pointMap, 
+				points.filter((p) -> isIntersection(pointMap, p)).toArray());
+		return Arrays.stream(intersections)
+				.mapToObj(pointMap::point).collect(Collectors.toList());
 	}
 
-
-	// Add the next line read from the file to the points map.
-	private static void 
-	addToPointsMapOneWay(RoadLineInfo line,
-						HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> map)
+	// Put points, numbered in the order they were read, in the order a
+	// HashMap holding every point of the pointMap would list them: by
+	// bucket, then in the order they were added.  The intersections have
+	// always come in that order, and the vertices are numbered by it.
+	private static int[] inHashMapOrder(PointMap pointMap, int[] points)
 	{
-		List<LinkedList<RoadLineInfo>> pt1Infos = map.get(line.point1);
-		if (pt1Infos == null) {
-			pt1Infos = new ArrayList<LinkedList<RoadLineInfo>>();
-			pt1Infos.add(new LinkedList<RoadLineInfo>());
-			pt1Infos.add(new LinkedList<RoadLineInfo>());
-			map.put(line.point1, pt1Infos);
+		int capacity = 16;
+		while (pointMap.size() > capacity / 4 * 3 && capacity < (1 << 30)) {
+			capacity *= 2;
+		}
+		long[] order = new long[points.length];
+		for (int i = 0; i < points.length; i++) {
+			int h = pointMap.point(points[i]).hashCode();
+			long bucket = (h ^ (h >>> 16)) & (capacity - 1);
+			order[i] = (bucket << 32) | points[i];
+		}
+		Arrays.sort(order);
+		for (int i = 0; i < points.length; i++) {
+			points[i] = (int)order[i];
 		}
-		List<RoadLineInfo> outgoing = pt1Infos.get(0);
-		outgoing.add(line);
+		return points;
+	}
+
+	// Whether point p is an intersection.
+	private static boolean 
+	isIntersection(PointMap pointMap, int p) {
+		// Now find the intersections.  These are roads that do not have
+		// Exactly 1 or 2 roads coming in and out, where the roads in
+		// match the roads out.
+		int roadsOut = pointMap.outDegree(p);
+		int roadsIn = pointMap.inDegree(p);
+		
+		boolean isNode = true;
 		
-		List<LinkedList<RoadLineInfo>> pt2Infos = map.get(line.point2);
-		if (pt2Infos == null) {
-			pt2Infos = new ArrayList<LinkedList<RoadLineInfo>>();
-			pt2Infos.add(new LinkedList<RoadLineInfo>());
-			pt2Infos.add(new LinkedList<RoadLineInfo>());
-			map.put(line.point2, pt2Infos);
+		if (roadsIn == 1 && roadsOut == 1) {
+			// If these are the reverse of each other, then this is
+			// and intersection (dead end)
+			int in = pointMap.in(p, 0);
+			int out = pointMap.out(p, 0);
+			if (!(pointMap.from(in) == pointMap.to(out) &&
+					pointMap.to(in) == pointMap.from(out))
+					&& pointMap.roadName(in).equals(pointMap.roadName(out))) {
+				isNode = false;
+			}
 		}
-		List<RoadLineInfo> incoming = pt2Infos.get(1);
-		incoming.add(line);
+		if (roadsIn == 2 && roadsOut == 2) {
+			// If all the road segments have the same name, 
+			// And there are two pairs of reversed nodes, then 
+			// this is not an intersection because the roads pass
+			// through.
 		
+			int in1 = pointMap.in(p, 0);
+			int in2 = pointMap.in(p, 1);
+			int out1 = pointMap.out(p, 0);
+			int out2 = pointMap.out(p, 1);
+	
+			String name = pointMap.roadName(in1);
+			boolean sameName = name.equals(pointMap.roadName(in2)) 
+					&& name.equals(pointMap.roadName(out1)) 
+					&& name.equals(pointMap.roadName(out2));
+			
+			boolean passThrough = false;
+			if ((pointMap.isReverse(in1, out1) && pointMap.isReverse(in2, out2)) ||
+					(pointMap.isReverse(in1, out2) && pointMap.isReverse(in2, out1))) {
+				
+				passThrough = true;
+			} 
+			
+			if (sameName && passThrough) {
+				isNode = false;
+			} 
+
+		} 
+		return isNode;
 	}
 	
-	// Split the input string into the line information
-	private static RoadLineInfo splitInputString(String input)
-	{	
-		
-		ArrayList<String> tokens = new ArrayList<String>();
-		Pattern tokSplitter = Pattern.compile("[^\\s\"']+|\"([^\"]*)\"");
-		Matcher m = tokSplitter.matcher(input);
-		
-		while (m.find()) {
-			if (m.group(1) != null) {
-				tokens.add(m.group(1));	
+	// Build the map of the points of the file and the road segments
+	// between them (see PointMap), with the segments in and out of
+	// each point listed.
+	private static PointMap buildPointMapOneWay(String filename)
+	{
+		PointMap pointMap = new PointMap();
+		try {
+			int parts = (int)Math.min(Runtime.getRuntime().availableProcessors(),
+					new File(filename).length() / MIN_PART_BYTES);
+			if (BinaryMapFile.isBinary(filename)) {
+				// the same segments, without the text to parse
+				BinaryMapFile.read(filename, pointMap);
+			}
+			else if (parts <= 1) {
+				MapFileParser.read(filename, pointMap);
 			}
 			else {
-				tokens.add(m.group());
+				// Each part of the file is read into its own map, and
+				// adding the parts in order gives the same map as reading
+				// the file in one go.
+				List<PointMap> partMaps = new ArrayList<PointMap>();
+				MapFileParser.read(filename, parts, (part) -> {
+					PointMap partMap = new PointMap();
+					partMaps.add(partMap);
+					return partMap;
+				});
+				for (PointMap partMap : partMaps) {
+					pointMap.addAll(partMap);
+				}
 			}
+		} catch (IOException e) {
+			System.err.println("Problem loading map file: " + filename);
+			e.printStackTrace();
 		}
-
-    	double lat1 = Double.parseDouble(tokens.get(0));
-        double lon1 = Double.parseDouble(tokens.get(1));
-        double lat2 = Double.parseDouble(tokens.get(2));
-        double lon2 = Double.parseDouble(tokens.get(3));
-        GeographicPoint p1 = new GeographicPoint(lat1, lon1);
-        GeographicPoint p2 = new GeographicPoint(lat2, lon2);
-
-        return new RoadLineInfo(p1, p2, tokens.get(4), tokens.get(5));
+		pointMap.finish();
 		
+		return pointMap;
 	}
 	
 	public static void main(String[] args)
@@ -613,104 +754,4 @@ public class GraphLoader
 
 	}
 	
-}	
-	
-
-// A class to store information about the lines in the road files.
-class RoadLineInfo
-{
-	GeographicPoint point1;
-	GeographicPoint point2;
-	
-	String roadName;
-	String roadType;
-	
-	/** Create a new RoadLineInfo object to store information about the line 
-	 * read from the file
-	 * @param p1 One of the points
-	 * @param p2 The other point
-	 * @param roadName The name of the road
-	 * @param roadType The type of the road
-	 */
-	RoadLineInfo(GeographicPoint p1, GeographicPoint p2, String roadName, String roadType) 
-	{
-		point1 = p1;
-		point2 = p2;
-		this.roadName = roadName;
-		this.roadType = roadType;
-	}
-	
-	
-	/** Get the other point from this roadLineInfo */
-	public GeographicPoint getOtherPoint(GeographicPoint pt)
-	{
-		if (pt == null) throw new IllegalArgumentException();
-		if (pt.equals(point1)) {
-			return point2;
-		}
-		else if (pt.equals(point2)) {
-			return point1;
-		}
-		else throw new IllegalArgumentException();
-	}
-	
-	/** Two RoadLineInfo objects are considered equal if they have the same
-	 * two points and the same roadName and roadType.
-	 */
-	public boolean equals(Object o)
-	{
-		if (o == null || !(o instanceof RoadLineInfo))
-		{
-			return false;
-		}
-		RoadLineInfo info = (RoadLineInfo)o;
-		return info.point1.equals(this.point1) && info.point2.equals(this.point2)  &&
-				info.roadType.equals(this.roadType) && info.roadName.equals(this.roadName);
-				
-	}
-	
-	/** Calculate the hashCode based on the hashCodes of the two points
-	 * @return The hashcode for this object.
-	 */
-	public int hashCode()
-	{
-		return point1.hashCode() + point2.hashCode();
-		
-	}
-	
-	/** Returns whether these segments are part of the same road in terms of
-	 * road name and road type.
-	 * @param info The RoadLineInfo to compare against.
-	 * @return true if these represent the same road, false otherwise.
-	 */
-	public boolean sameRoad(RoadLineInfo info)
-	{
-		return info.roadName.equals(this.roadName) && info.roadType.equals(this.roadType);
-	}
-	
-	/** Return a copy of this LineInfo in the other direction */
-	public RoadLineInfo getReverseCopy()
-	{
-		return new RoadLineInfo(this.point2, this.point1, this.roadName, this.roadType);
-	}
-	
-	/** Return true if this road is the same segment as other, but in reverse
-	 *   Otherwise return false.
-	 */
-	public boolean isReverse(RoadLineInfo other)
-	{
-		return this.point1.equals(other.point2) && this.point2.equals(other.point1) &&
-				this.roadName.equals(other.roadName) && this.roadType.equals(other.roadType);
-	}
-	
-	/** Return the string representation of this LineInfo. */
-	public String toString()
-	{
-		return this.point1 + " " + this.point2 + " " + this.roadName + " " + this.roadType;
-		
-	}
-	
-	
-	
-	
 }
@@ -0,0 +1,387 @@
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * Reads and writes road graphs that have already been built from a map
+ * file, in a binary form that is memory-mapped to load.
+ */
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * The result of loading a .map file: its intersections, and the edges
+ * between them with their lengths and the geometry of their road
+ * segments, so that a graph can be rebuilt without parsing the file or
+ * finding its intersections again.  All numbers are big-endian:
+ *
+ *   int MAGIC, int VERSION,
+ *   long length and long lastModified of the map file it was built from,
+ *   int strings, then each road name and type as int n, n bytes of UTF-8,
+ *   int vertices, then double lat, double lon of each,
+ *   int edges, then for each
+ *     int from, int to, int name, int type, double length, int points,
+ *   int points, then double lat, double lon of each point of geometry,
+ *     for each edge in turn
+ *
+ * Vertices and edges are numbered, and read back, in the order they
+ * were added, so the graph built from a snapshot is the same as the one
+ * built from its map file.  By convention these files sit next to the
+ * map file, ending in ".mapg" instead of ".map".
+ */
+public final class GraphSnapshotFile
+{
+	/** The file name extension of graph snapshot files */
+	public static final String EXTENSION = ".mapg";
+
+	private static final int MAGIC = 0x4d415047; // "MAPG"
+	private static final int VERSION = 1;
+
+	private GraphSnapshotFile() {}
+
+	/** Receives the graph of a snapshot as it is read */
+	public interface GraphHandler
+	{
+		/**
+		 * Handle one intersection.  They all come before the edges.
+		 * @param location The location of the intersection
+		 */
+		void vertex(GeographicPoint location);
+
+		/**
+		 * Handle one edge
+		 * @param from The intersection the edge starts at
+		 * @param to The intersection the edge ends at
+		 * @param roadName The name of the road
+		 * @param roadType The type of the road
+		 * @param length The length of the road in km
+		 * @param geometry The points of the road between from and to
+		 */
+		void edge(GeographicPoint from, GeographicPoint to, String roadName,
+				String roadType, double length, List<GeographicPoint> geometry);
+	}
+
+	/**
+	 * @param filename The name of a road data file
+	 * @return true if the name has the graph snapshot extension
+	 */
+	public static boolean isSnapshot(String filename)
+	{
+		return filename.endsWith(EXTENSION);
+	}
+
+	/**
+	 * @param mapFile A .map (or .mapb) file
+	 * @return the name of its snapshot file
+	 */
+	public static String snapshotOf(String mapFile)
+	{
+		int dot = mapFile.lastIndexOf('.');
+		if (dot <= Math.max(mapFile.lastIndexOf('/'), mapFile.lastIndexOf(File.separatorChar))) {
+			dot = mapFile.length();
+		}
+		return mapFile.substring(0, dot) + EXTENSION;
+	}
+
+	/**
+	 * Check that a snapshot can be read, and was built from the current
+	 * contents of a map file (as far as its length and modification
+	 * time tell)
+	 * @param snapshotFile The snapshot
+	 * @param mapFile The map file it should have been built from
+	 * @return true if the snapshot is up to date
+	 */
+	public static boolean isCurrent(String snapshotFile, String mapFile)
+	{
+		File source = new File(mapFile);
+		if (!new File(snapshotFile).isFile() || !source.isFile()) {
+			return false;
+		}
+		try (DataInputStream in = new DataInputStream(new FileInputStream(snapshotFile))) {
+			return in.readInt() == MAGIC && in.readInt() == VERSION
+					&& in.readLong() == source.length() && in.readLong() == source.lastModified();
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Read the graph of a snapshot, vertices first.  The whole file is
+	 * checked before anything is handed to the handler, so if it is
+	 * damaged the handler is given nothing.
+	 * @param filename The file to read
+	 * @param handler Receives each vertex and edge
+	 * @param withGeometry Whether to read the geometry of the edges; if
+	 *   not, each edge gets an empty list
+	 * @throws IOException if the file cannot be read, is not a graph
+	 *   snapshot of a supported version, or is damaged
+	 */
+	public static void read(String filename, GraphHandler handler, boolean withGeometry)
+			throws IOException
+	{
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(filename + " is too large to map");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException(filename + " is not a graph snapshot");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException(filename + ": unsupported version " + version);
+			}
+			buffer.getLong();
+			buffer.getLong();
+
+			String[] strings = new String[buffer.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				byte[] bytes = new byte[buffer.getInt()];
+				buffer.get(bytes);
+				strings[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+
+			GeographicPoint[] vertices = new GeographicPoint[buffer.getInt()];
+			int verticesAt = buffer.position();
+			buffer.position(verticesAt + 16 * vertices.length);
+
+			int edges = buffer.getInt();
+			int edgesAt = buffer.position();
+			long points = 0;
+			for (int i = 0; i < edges; i++) {
+				int from = buffer.getInt();
+				int to = buffer.getInt();
+				int name = buffer.getInt();
+				int type = buffer.getInt();
+				buffer.getDouble();
+				int count = buffer.getInt();
+				if (from < 0 || from >= vertices.length || to < 0 || to >= vertices.length
+						|| name < 0 || name >= strings.length || type < 0 || type >= strings.length
+						|| count < 0) {
+					throw new IOException(filename + " is corrupt");
+				}
+				points += count;
+			}
+			if (buffer.getInt() != points || buffer.remaining() != 16 * points) {
+				throw new IOException(filename + " is corrupt");
+			}
+			ByteBuffer geometry = buffer.slice();
+
+			buffer.position(verticesAt);
+			for (int i = 0; i < vertices.length; i++) {
+				vertices[i] = new GeographicPoint(buffer.getDouble(), buffer.getDouble());
+				handler.vertex(vertices[i]);
+			}
+			buffer.position(edgesAt);
+			List<GeographicPoint> none = Collections.emptyList();
+			for (int i = 0; i < edges; i++) {
+				GeographicPoint from = vertices[buffer.getInt()];
+				GeographicPoint to = vertices[buffer.getInt()];
+				String name = strings[buffer.getInt()];
+				String type = strings[buffer.getInt()];
+				double length = buffer.getDouble();
+				int count = buffer.getInt();
+				handler.edge(from, to, name, type, length,
+						withGeometry ? readPoints(geometry, count) : none);
+			}
+		}
+		catch (RuntimeException e) {
+			// a truncated file, or a count out of range
+			throw new IOException(filename + " is corrupt", e);
+		}
+	}
+
+	private static List<GeographicPoint> readPoints(ByteBuffer geometry, int count)
+	{
+		GeographicPoint[] points = new GeographicPoint[count];
+		for (int i = 0; i < count; i++) {
+			points[i] = new GeographicPoint(geometry.getDouble(), geometry.getDouble());
+		}
+		return Arrays.asList(points);
+	}
+
+	/**
+	 * Collects a graph and writes it as a snapshot when closed
+	 */
+	public static class Writer implements Closeable
+	{
+		private final String filename;
+		private final File source;
+
+		private final List<String> strings = new ArrayList<String>();
+		private final HashMap<String,Integer> stringIds = new HashMap<String,Integer>();
+		private final HashMap<GeographicPoint,Integer> vertexIds = new HashMap<GeographicPoint,Integer>();
+		private final List<GeographicPoint> vertices = new ArrayList<GeographicPoint>();
+
+		// from, to, name, type and point count of each edge
+		private int[] edges = new int[5 * 1024];
+		private double[] lengths = new double[1024];
+		private int edgeCount;
+		private final DoubleList geometry = new DoubleList();
+
+		/**
+		 * @param filename The file to write
+		 * @param mapFile The map file the graph is built from
+		 */
+		public Writer(String filename, String mapFile)
+		{
+			this.filename = filename;
+			this.source = new File(mapFile);
+		}
+
+		/**
+		 * Add an intersection
+		 * @param location The location of the intersection
+		 */
+		public void vertex(GeographicPoint location)
+		{
+			if (!vertexIds.containsKey(location)) {
+				vertexIds.put(location, vertices.size());
+				vertices.add(location);
+			}
+		}
+
+		/**
+		 * Add an edge between two intersections already added
+		 * @param from The intersection the edge starts at
+		 * @param to The intersection the edge ends at
+		 * @param roadName The name of the road
+		 * @param roadType The type of the road
+		 * @param length The length of the road in km
+		 * @param points The points of the road between from and to
+		 */
+		public void edge(GeographicPoint from, GeographicPoint to, String roadName,
+				String roadType, double length, List<GeographicPoint> points)
+		{
+			if (5 * edgeCount == edges.length) {
+				edges = Arrays.copyOf(edges, 2 * edges.length);
+				lengths = Arrays.copyOf(lengths, 2 * lengths.length);
+			}
+			int e = 5 * edgeCount;
+			edges[e] = vertexIds.get(from);
+			edges[e + 1] = vertexIds.get(to);
+			edges[e + 2] = string(roadName);
+			edges[e + 3] = string(roadType);
+			edges[e + 4] = points.size();
+			lengths[edgeCount++] = length;
+			for (GeographicPoint point : points) {
+				geometry.add(point.getX());
+				geometry.add(point.getY());
+			}
+		}
+
+		/**
+		 * Write the file, replacing it at once when it is complete
+		 * @throws IOException if it cannot be written
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			// Written under another name and then renamed, so that a
+			// snapshot that is there is always whole
+			File target = new File(filename);
+			File temp = File.createTempFile(target.getName(), ".tmp",
+					target.getAbsoluteFile().getParentFile());
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(source.length());
+				out.writeLong(source.lastModified());
+				out.writeInt(strings.size());
+				for (String s : strings) {
+					byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+				out.writeInt(vertices.size());
+				for (GeographicPoint v : vertices) {
+					out.writeDouble(v.getX());
+					out.writeDouble(v.getY());
+				}
+				out.writeInt(edgeCount);
+				for (int i = 0; i < edgeCount; i++) {
+					for (int j = 0; j < 4; j++) {
+						out.writeInt(edges[5 * i + j]);
+					}
+					out.writeDouble(lengths[i]);
+					out.writeInt(edges[5 * i + 4]);
+				}
+				out.writeInt(geometry.size() / 2);
+				for (int i = 0; i < geometry.size(); i++) {
+					out.writeDouble(geometry.get(i));
+				}
+				out.close();
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+			finally {
+				out.close();
+				temp.delete();
+			}
+		}
+
+		private int string(String s)
+		{
+			Integer id = stringIds.get(s);
+			if (id == null) {
+				id = strings.size();
+				stringIds.put(s, id);
+				strings.add(s);
+			}
+			return id;
+		}
+	}
+
+	/** A growable list of doubles */
+	private static class DoubleList
+	{
+		private double[] values = new double[1024];
+		private int size;
+
+		void add(double value)
+		{
+			if (size == values.length) {
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			values[size++] = value;
+		}
+
+		double get(int i)
+		{
+			return values[i];
+		}
+
+		int size()
+		{
+			return size;
+		}
+	}
+
+}
@@ -0,0 +1,267 @@
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * Keeps the intersections files written for map files, so that they
+ * are not written again each time for the same map.
+ */
+package util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A cache of the intersections files GraphLoader.createIntersectionsFile
+ * writes, keyed by the SHA-256 hash of the contents of each map file, so
+ * an entry is found again however the file is named or moved, and is
+ * never used for a file that has changed.  For each map file it keeps
+ *
+ *   HASH.intersections  the intersections file written for it
+ *
+ * Hashing a large map file costs about as much as reading it again, so
+ * the hash is also kept for each file by name, in PATH.stamp (PATH being
+ * the hash of its canonical path) with its length and modification time:
+ *   int MAGIC, int VERSION, long length, long lastModified,
+ *   the 32 bytes of HASH
+ * While the file's length and modification time stay the same, its
+ * hash is taken from there without reading the file.
+ *
+ * Graphs are not built from the cache: finding the intersections is a
+ * small part of loading a map (under a second of twenty for a million
+ * intersections), while copying a kept intersections file saves all of
+ * the work of writing it.
+ *
+ * The entries live in the directory cache in data/intersections, and
+ * the cache is only used when that directory exists (that is, when run
+ * from the project, as MapApp and the graders are), unless another
+ * directory is set.  Entries are written to a temporary file and then
+ * renamed, so a reader never sees half an entry, and one that does not
+ * check out is found again and rewritten.  Any failure to read or write
+ * the cache just means the work is done again.
+ */
+public final class IntersectionCache
+{
+	/** The directory of the cache unless another is set */
+	public static final String DEFAULT_DIRECTORY = "data/intersections/cache";
+
+	private static final int MAGIC = 0x4d415053; // "MAPS"
+	private static final int VERSION = 1;
+
+	private static volatile File directory = new File(DEFAULT_DIRECTORY);
+
+	private IntersectionCache() {}
+
+	/**
+	 * Set the directory of the cache, which is created when first
+	 * written to if its parent exists
+	 * @param dir The directory, or null to turn the cache off
+	 */
+	public static void setDirectory(String dir)
+	{
+		directory = dir == null ? null : new File(dir);
+	}
+
+	/**
+	 * Hash the contents of a map file, if the cache is in use.  The file
+	 * is only read if it is new or has changed since it was last hashed.
+	 * @param filename The map file
+	 * @return the hash as hex digits, or null if the cache is off or the
+	 *   file cannot be read
+	 */
+	static String hashOf(String filename)
+	{
+		File dir = directory;
+		File parent = dir == null ? null : dir.getAbsoluteFile().getParentFile();
+		if (dir == null || !(dir.isDirectory() || parent != null && parent.isDirectory())) {
+			return null;
+		}
+		try {
+			File file = new File(filename);
+			File stamp = entry(toHex(sha256(file.getCanonicalPath()
+					.getBytes(StandardCharsets.UTF_8))), ".stamp");
+			long length = file.length();
+			long lastModified = file.lastModified();
+			String hash = readStamp(stamp, length, lastModified);
+			if (hash == null) {
+				hash = contentHash(file);
+				// keep it only if the file did not change while it was read
+				if (file.length() == length && file.lastModified() == lastModified) {
+					writeStamp(stamp, length, lastModified, hash);
+				}
+			}
+			return hash;
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static String contentHash(File file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MessageDigest digest = sha256();
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+			return toHex(digest.digest());
+		}
+	}
+
+	// The hash kept for a file, if its length and modification time
+	// are still those it was hashed with
+	private static String readStamp(File stamp, long length, long lastModified)
+	{
+		if (!stamp.isFile() || stamp.length() != 56) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new FileInputStream(stamp))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION
+					|| in.readLong() != length || in.readLong() != lastModified) {
+				return null;
+			}
+			byte[] hash = new byte[32];
+			in.readFully(hash);
+			return toHex(hash);
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static void writeStamp(File stamp, long length, long lastModified, String hash)
+	{
+		try {
+			File temp = temporary(stamp);
+			try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(length);
+				out.writeLong(lastModified);
+				writeHash(out, hash);
+			}
+			commit(temp, stamp);
+		}
+		catch (IOException e) {
+			// it will be hashed again next time
+		}
+	}
+
+	/**
+	 * Copy the intersections file of a map file from the cache
+	 * @param hash The hash of the map file, or null
+	 * @param intersectionsFile The file to write
+	 * @return true if the cache had it and it was copied
+	 */
+	static boolean copyIntersectionsFile(String hash, String intersectionsFile)
+	{
+		File file = entry(hash, ".intersections");
+		if (file == null || !file.isFile()) {
+			return false;
+		}
+		try {
+			Files.copy(file.toPath(), new File(intersectionsFile).toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			return true;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Keep the intersections file of a map file
+	 * @param hash The hash of the map file, or null to keep nothing
+	 * @param intersectionsFile The file createIntersectionsFile wrote
+	 */
+	static void keepIntersectionsFile(String hash, String intersectionsFile)
+	{
+		File file = entry(hash, ".intersections");
+		if (file == null) {
+			return;
+		}
+		try {
+			File temp = temporary(file);
+			Files.copy(new File(intersectionsFile).toPath(), temp.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			commit(temp, file);
+		}
+		catch (IOException e) {
+			// it will be written again next time
+		}
+	}
+
+	private static File entry(String hash, String extension)
+	{
+		File dir = directory;
+		return hash == null || dir == null ? null : new File(dir, hash + extension);
+	}
+
+	// A new file to write an entry to before renaming it
+	private static File temporary(File entry) throws IOException
+	{
+		File dir = entry.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdir()) {
+			throw new IOException("cannot create " + dir);
+		}
+		return File.createTempFile(entry.getName(), ".tmp", dir);
+	}
+
+	private static void commit(File temp, File entry) throws IOException
+	{
+		try {
+			Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			temp.delete();
+		}
+	}
+
+	private static void writeHash(DataOutputStream out, String hash) throws IOException
+	{
+		for (int i = 0; i < hash.length(); i += 2) {
+			out.writeByte(Integer.parseInt(hash.substring(i, i + 2), 16));
+		}
+	}
+
+	private static MessageDigest sha256()
+	{
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			// every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] sha256(byte[] bytes)
+	{
+		return sha256().digest(bytes);
+	}
+
+	private static String toHex(byte[] bytes)
+	{
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+			hex.append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+}
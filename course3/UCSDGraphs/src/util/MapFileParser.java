@@ -0,0 +1,369 @@
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * Reads the road segments of a text .map file.
+ */
+package util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * A tokenizer for .map files that works on the bytes of the file.  Each
+ * line is
+ *
+ *   lat1 lon1 lat2 lon2 roadName roadType
+ *
+ * where a token is either a run of characters other than white space
+ * and quotes, or anything between a pair of double quotes (the quotes
+ * are dropped), and lines with more tokens have the rest ignored.  The
+ * file is read through one buffer; the numbers are parsed in place, and
+ * the names and types, of which there are few, are each decoded once
+ * and shared after that.  So reading a line allocates nothing.  Large
+ * files can be read in parts, each on its own thread.
+ *
+ * Numbers with at most 18 significant digits and a small exponent, as
+ * in every .map file, are the exact quotient or product of two doubles
+ * (the digits and a power of ten), which is correctly rounded; anything
+ * else goes through Double.parseDouble.  Either way the value is the
+ * one Double.parseDouble gives.
+ */
+public final class MapFileParser
+{
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** The powers of ten that are exact doubles */
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private byte[] buffer = new byte[BUFFER_SIZE];
+
+	// the bounds of the tokens of the current line
+	private final int[] tokenStart = new int[6];
+	private final int[] tokenEnd = new int[6];
+
+	// road names and types by their bytes, with open addressing
+	private byte[][] stringBytes = new byte[64][];
+	private String[] strings = new String[64];
+	private int stringCount;
+
+	private MapFileParser() {}
+
+	/**
+	 * Read every segment of a .map file, in order
+	 * @param filename The file to read
+	 * @param handler Receives each segment
+	 * @throws IOException if the file cannot be read
+	 * @throws NumberFormatException if a coordinate is not a number
+	 * @throws IllegalArgumentException if a line has too few tokens
+	 */
+	public static void read(String filename, BinaryMapFile.SegmentHandler handler)
+			throws IOException
+	{
+		read(filename, 1, (part) -> handler);
+	}
+
+	/**
+	 * Read a .map file in parts, in parallel on the common ForkJoinPool.
+	 * The file is split into parts of about the same number of bytes at
+	 * line boundaries, and each part is read in order into its own handler.
+	 * @param filename The file to read
+	 * @param parts The number of parts to split it into
+	 * @param handlerForPart Gives the handler of each part, called for
+	 *   parts 0, 1, 2, ... in turn on the calling thread before any is read
+	 * @throws IOException if the file cannot be read
+	 * @throws NumberFormatException if a coordinate is not a number
+	 * @throws IllegalArgumentException if a line has too few tokens
+	 */
+	public static void read(String filename, int parts,
+			IntFunction<BinaryMapFile.SegmentHandler> handlerForPart) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			long size = channel.size();
+			BinaryMapFile.SegmentHandler[] handlers = new BinaryMapFile.SegmentHandler[parts];
+			for (int i = 0; i < parts; i++) {
+				handlers[i] = handlerForPart.apply(i);
+			}
+			if (parts == 1) {
+				new MapFileParser().read(channel, 0, size, handlers[0]);
+				return;
+			}
+			IntStream.range(0, parts).parallel().forEach((i) -> {
+				try {
+					new MapFileParser().read(channel, size * i / parts, size * (i + 1) / parts,
+							handlers[i]);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	// Read the lines that start at from or after and before to, splitting
+	// them at \n, \r or \r\n like readLine.  The part of a line that
+	// starts before from is skipped, and the line that starts before to
+	// is read past it.
+	private void read(FileChannel channel, long from, long to,
+			BinaryMapFile.SegmentHandler handler) throws IOException
+	{
+		// buffer[0] is at position base in the file
+		long base = from == 0 ? 0 : from - 1;
+		long position = base;
+		boolean skipping = from > 0;
+		int start = 0;
+		int end = 0;
+		int scan = 0;
+		boolean eof = false;
+		while (true) {
+			while (scan < end && buffer[scan] != '\n' && buffer[scan] != '\r') {
+				scan++;
+			}
+			if (scan < end) {
+				if (!skipping) {
+					if (base + start >= to) {
+						return;
+					}
+					parseLine(start, scan, handler);
+				}
+				skipping = false;
+				start = ++scan;
+			}
+			else if (eof) {
+				if (!skipping && base + start < to) {
+					parseLine(start, end, handler);
+				}
+				return;
+			}
+			else {
+				// keep the partial line, growing the buffer if it fills it
+				int kept = end - start;
+				if (kept == buffer.length) {
+					buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+				}
+				else {
+					System.arraycopy(buffer, start, buffer, 0, kept);
+				}
+				base += start;
+				start = 0;
+				end = kept;
+				scan = kept;
+				int n = channel.read(ByteBuffer.wrap(buffer, end, buffer.length - end), position);
+				if (n < 0) {
+					eof = true;
+				}
+				else {
+					end += n;
+					position += n;
+				}
+			}
+		}
+	}
+
+	private void parseLine(int from, int to, BinaryMapFile.SegmentHandler handler)
+	{
+		int tokens = 0;
+		int i = from;
+		while (i < to && tokens < tokenStart.length) {
+			byte b = buffer[i];
+			if (isSeparator(b) || b == '\'') {
+				i++;
+			}
+			else if (b == '"') {
+				int close = i + 1;
+				while (close < to && buffer[close] != '"') {
+					close++;
+				}
+				if (close < to) {
+					tokenStart[tokens] = i + 1;
+					tokenEnd[tokens++] = close;
+					i = close + 1;
+				}
+				else {
+					// an unmatched quote is skipped
+					i++;
+				}
+			}
+			else {
+				tokenStart[tokens] = i;
+				while (i < to && !isSeparator(buffer[i]) && buffer[i] != '"' && buffer[i] != '\'') {
+					i++;
+				}
+				tokenEnd[tokens++] = i;
+			}
+		}
+		if (tokens == 0) {
+			return;
+		}
+		if (tokens < tokenStart.length) {
+			throw new IllegalArgumentException("Expected 4 coordinates, a road name and a type in: "
+					+ new String(buffer, from, to - from, StandardCharsets.UTF_8));
+		}
+		handler.segment(parseDouble(0), parseDouble(1), parseDouble(2), parseDouble(3),
+				string(4), string(5));
+	}
+
+	// White space as in the regular expression \s
+	private static boolean isSeparator(byte b)
+	{
+		return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+	}
+
+	// Parse a token of the current line as a double
+	private double parseDouble(int token)
+	{
+		int i = tokenStart[token];
+		int end = tokenEnd[token];
+		boolean negative = false;
+		if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+			negative = buffer[i++] == '-';
+		}
+		long digits = 0;
+		int significant = 0;
+		int scale = 0;
+		boolean anyDigit = false;
+		boolean point = false;
+		for (; i < end; i++) {
+			int b = buffer[i];
+			if (b >= '0' && b <= '9') {
+				anyDigit = true;
+				if (digits != 0 || b != '0') {
+					if (++significant > 18) {
+						return slowParseDouble(token);
+					}
+					digits = 10 * digits + (b - '0');
+				}
+				if (point) {
+					scale--;
+				}
+			}
+			else if (b == '.' && !point) {
+				point = true;
+			}
+			else {
+				break;
+			}
+		}
+		if (!anyDigit) {
+			return slowParseDouble(token);
+		}
+		if (i < end) {
+			if (buffer[i] != 'e' && buffer[i] != 'E') {
+				return slowParseDouble(token);
+			}
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+				negativeExponent = buffer[i++] == '-';
+			}
+			if (i == end || end - i > 3) {
+				return slowParseDouble(token);
+			}
+			int exponent = 0;
+			for (; i < end; i++) {
+				int b = buffer[i];
+				if (b < '0' || b > '9') {
+					return slowParseDouble(token);
+				}
+				exponent = 10 * exponent + (b - '0');
+			}
+			scale += negativeExponent ? -exponent : exponent;
+		}
+		double value;
+		if (digits == 0) {
+			value = 0;
+		}
+		else if (digits < (1L << 53) && scale < 0 && scale >= -22) {
+			value = digits / POWERS_OF_TEN[-scale];
+		}
+		else if (digits < (1L << 53) && scale >= 0 && scale <= 22) {
+			value = digits * POWERS_OF_TEN[scale];
+		}
+		else {
+			return slowParseDouble(token);
+		}
+		return negative ? -value : value;
+	}
+
+	private double slowParseDouble(int token)
+	{
+		return Double.parseDouble(new String(buffer, tokenStart[token],
+				tokenEnd[token] - tokenStart[token], StandardCharsets.UTF_8));
+	}
+
+	// The token as a String, decoding each distinct one only once
+	private String string(int token)
+	{
+		int from = tokenStart[token];
+		int length = tokenEnd[token] - from;
+		int mask = strings.length - 1;
+		int slot = hash(buffer, from, from + length) & mask;
+		while (stringBytes[slot] != null) {
+			byte[] bytes = stringBytes[slot];
+			if (bytes.length == length && equals(bytes, from)) {
+				return strings[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		String s = new String(buffer, from, length, StandardCharsets.UTF_8);
+		stringBytes[slot] = Arrays.copyOfRange(buffer, from, from + length);
+		strings[slot] = s;
+		if (++stringCount * 2 > strings.length) {
+			growStrings();
+		}
+		return s;
+	}
+
+	private static int hash(byte[] bytes, int from, int to)
+	{
+		int hash = 1;
+		for (int i = from; i < to; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	private boolean equals(byte[] bytes, int from)
+	{
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] != buffer[from + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void growStrings()
+	{
+		byte[][] oldBytes = stringBytes;
+		String[] oldStrings = strings;
+		stringBytes = new byte[2 * oldBytes.length][];
+		strings = new String[2 * oldStrings.length];
+		int mask = strings.length - 1;
+		for (int i = 0; i < oldBytes.length; i++) {
+			if (oldBytes[i] != null) {
+				int slot = hash(oldBytes[i], 0, oldBytes[i].length) & mask;
+				while (stringBytes[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				stringBytes[slot] = oldBytes[i];
+				strings[slot] = oldStrings[i];
+			}
+		}
+	}
+
+}
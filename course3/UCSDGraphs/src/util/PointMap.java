@@ -0,0 +1,289 @@
+/**
+ * @author UCSD MOOC development team and YOU
+ *
+ * The points of a map file and the road segments between them, as
+ * GraphLoader collects them before finding the intersections.
+ */
+package util;
+
+import java.util.Arrays;
+
+import geography.GeographicPoint;
+
+/**
+ * The points and road segments of a map file, numbered in the order
+ * they are read, in flat arrays instead of an object per point and per
+ * segment.  Points are found through an open-addressing table keyed by
+ * their coordinates packed as fixed-point longs (units of 1e-7 degrees,
+ * about a centimetre); the exact coordinates are kept alongside, so two
+ * points are the same only if their coordinates are exactly equal, not
+ * just within a centimetre.  Once every segment is added, finish() lists
+ * the segments out of and into each point as int arrays, each in the
+ * order the segments were read.
+ *
+ * Each point and each segment costs a few dozen bytes, against
+ * several hundred for the HashMap of GeographicPoints to LinkedLists of
+ * road lines this replaces.
+ */
+class PointMap implements BinaryMapFile.SegmentHandler
+{
+	private static final double FIXED_POINT = 1e7;
+
+	// the points, by number
+	private long[] keys = new long[1024];
+	private double[] lats = new double[1024];
+	private double[] lons = new double[1024];
+	private int pointCount;
+
+	// the number + 1 of the point in each slot, or 0 if it is empty
+	private int[] table = new int[2048];
+
+	// the segments, by number
+	private int[] from = new int[1024];
+	private int[] to = new int[1024];
+	private String[] roadNames = new String[1024];
+	private String[] roadTypes = new String[1024];
+	private int segmentCount;
+
+	// once finished, the segments out of point p are
+	// outSegments[outStart[p]] to outSegments[outStart[p + 1] - 1],
+	// and likewise into it
+	private int[] outStart;
+	private int[] outSegments;
+	private int[] inStart;
+	private int[] inSegments;
+
+	/**
+	 * Add a one-way road segment, and its points if they are new
+	 */
+	@Override
+	public void segment(double lat1, double lon1, double lat2, double lon2,
+			String roadName, String roadType)
+	{
+		int p1 = add(lat1, lon1);
+		addSegment(p1, add(lat2, lon2), roadName, roadType);
+	}
+
+	/**
+	 * Add the points and segments of another map after those of this
+	 * one, as if they had been added to this one in the same order
+	 * @param part The map to add
+	 */
+	void addAll(PointMap part)
+	{
+		int[] numbers = new int[part.pointCount];
+		for (int p = 0; p < part.pointCount; p++) {
+			numbers[p] = add(part.lats[p], part.lons[p]);
+		}
+		for (int s = 0; s < part.segmentCount; s++) {
+			addSegment(numbers[part.from[s]], numbers[part.to[s]],
+					part.roadNames[s], part.roadTypes[s]);
+		}
+	}
+
+	/**
+	 * Build the lists of segments out of and into each point.  No more
+	 * segments may be added after this.
+	 */
+	void finish()
+	{
+		outStart = new int[pointCount + 1];
+		inStart = new int[pointCount + 1];
+		outSegments = listSegments(from, outStart);
+		inSegments = listSegments(to, inStart);
+		from = Arrays.copyOf(from, segmentCount);
+		to = Arrays.copyOf(to, segmentCount);
+		roadNames = Arrays.copyOf(roadNames, segmentCount);
+		roadTypes = Arrays.copyOf(roadTypes, segmentCount);
+	}
+
+	// Counting sort of the segments by the point at one end, which
+	// keeps the segments of each point in order
+	private int[] listSegments(int[] ends, int[] start)
+	{
+		for (int s = 0; s < segmentCount; s++) {
+			start[ends[s] + 1]++;
+		}
+		for (int p = 0; p < pointCount; p++) {
+			start[p + 1] += start[p];
+		}
+		int[] next = Arrays.copyOf(start, pointCount);
+		int[] segments = new int[segmentCount];
+		for (int s = 0; s < segmentCount; s++) {
+			segments[next[ends[s]]++] = s;
+		}
+		return segments;
+	}
+
+	/** @return the number of points */
+	int size()
+	{
+		return pointCount;
+	}
+
+	/**
+	 * @param location A location
+	 * @return the number of the point there, or -1 if there is none
+	 */
+	int indexOf(GeographicPoint location)
+	{
+		double lat = location.getX();
+		double lon = location.getY();
+		long key = key(lat, lon);
+		int mask = table.length - 1;
+		for (int slot = slot(key, mask); table[slot] != 0; slot = (slot + 1) & mask) {
+			int p = table[slot] - 1;
+			if (isAt(p, key, lat, lon)) {
+				return p;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param p The number of a point
+	 * @return a new GeographicPoint at its location
+	 */
+	GeographicPoint point(int p)
+	{
+		return new GeographicPoint(lats[p], lons[p]);
+	}
+
+	/** @return the number of segments out of point p */
+	int outDegree(int p)
+	{
+		return outStart[p + 1] - outStart[p];
+	}
+
+	/** @return the i'th segment out of point p */
+	int out(int p, int i)
+	{
+		return outSegments[outStart[p] + i];
+	}
+
+	/** @return the number of segments into point p */
+	int inDegree(int p)
+	{
+		return inStart[p + 1] - inStart[p];
+	}
+
+	/** @return the i'th segment into point p */
+	int in(int p, int i)
+	{
+		return inSegments[inStart[p] + i];
+	}
+
+	/** @return the point segment s starts at */
+	int from(int s)
+	{
+		return from[s];
+	}
+
+	/** @return the point segment s ends at */
+	int to(int s)
+	{
+		return to[s];
+	}
+
+	/** @return the name of the road of segment s */
+	String roadName(int s)
+	{
+		return roadNames[s];
+	}
+
+	/** @return the type of the road of segment s */
+	String roadType(int s)
+	{
+		return roadTypes[s];
+	}
+
+	/**
+	 * @return true if segments s and t are the same segment of the same
+	 *   road, in opposite directions
+	 */
+	boolean isReverse(int s, int t)
+	{
+		return from[s] == to[t] && to[s] == from[t]
+				&& roadNames[s].equals(roadNames[t]) && roadTypes[s].equals(roadTypes[t]);
+	}
+
+	// The number of the point at a location, adding it if it is new
+	private int add(double lat, double lon)
+	{
+		long key = key(lat, lon);
+		int mask = table.length - 1;
+		int slot = slot(key, mask);
+		while (table[slot] != 0) {
+			int p = table[slot] - 1;
+			if (isAt(p, key, lat, lon)) {
+				return p;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (pointCount == keys.length) {
+			keys = Arrays.copyOf(keys, 2 * pointCount);
+			lats = Arrays.copyOf(lats, 2 * pointCount);
+			lons = Arrays.copyOf(lons, 2 * pointCount);
+		}
+		int p = pointCount++;
+		keys[p] = key;
+		lats[p] = lat;
+		lons[p] = lon;
+		table[slot] = p + 1;
+		if (2 * pointCount > table.length) {
+			growTable();
+		}
+		return p;
+	}
+
+	private void addSegment(int p1, int p2, String roadName, String roadType)
+	{
+		if (segmentCount == from.length) {
+			from = Arrays.copyOf(from, 2 * segmentCount);
+			to = Arrays.copyOf(to, 2 * segmentCount);
+			roadNames = Arrays.copyOf(roadNames, 2 * segmentCount);
+			roadTypes = Arrays.copyOf(roadTypes, 2 * segmentCount);
+		}
+		from[segmentCount] = p1;
+		to[segmentCount] = p2;
+		roadNames[segmentCount] = roadName;
+		roadTypes[segmentCount] = roadType;
+		segmentCount++;
+	}
+
+	// Whether point p is at exactly this location, comparing the keys
+	// first
+	private boolean isAt(int p, long key, double lat, double lon)
+	{
+		return keys[p] == key
+				&& Double.doubleToLongBits(lats[p]) == Double.doubleToLongBits(lat)
+				&& Double.doubleToLongBits(lons[p]) == Double.doubleToLongBits(lon);
+	}
+
+	private void growTable()
+	{
+		table = new int[2 * table.length];
+		int mask = table.length - 1;
+		for (int p = 0; p < pointCount; p++) {
+			int slot = slot(keys[p], mask);
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = p + 1;
+		}
+	}
+
+	// The latitude and longitude in fixed point, packed in a long
+	private static long key(double lat, double lon)
+	{
+		return ((long)(int)Math.round(lat * FIXED_POINT) << 32)
+				| ((int)Math.round(lon * FIXED_POINT) & 0xffffffffL);
+	}
+
+	private static int slot(long key, int mask)
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32)) & mask;
+	}
+
+}